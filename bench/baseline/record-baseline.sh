@@ -0,0 +1,38 @@
+#!/usr/bin/env bash
+#
+# Records bench/baseline/jmh-baseline.json from the LiveSet, LiveMap and CallGraph benchmarks.
+#
+# Usage: bench/baseline/record-baseline.sh [commit]
+#
+# The benchmarks run against the solver of the given commit (by default d8a2714, the commit that added the bench
+# subproject), using the benchmark sources of the working tree so that every recorded benchmark exists there. Run it
+# from the repository root on an otherwise idle machine.
+
+set -euo pipefail
+
+commit="${1:-d8a2714}"
+root="$(git rev-parse --show-toplevel)"
+output="$root/bench/baseline/jmh-baseline.json"
+worktree="$(mktemp -d)"
+
+cleanup() {
+  git -C "$root" worktree remove --force "$worktree"
+}
+
+git -C "$root" worktree add --detach "$worktree" "$commit"
+trap cleanup EXIT
+
+rm -rf "$worktree/bench/src"
+cp -r "$root/bench/src" "$worktree/bench/src"
+cp "$root/build.sbt" "$worktree/build.sbt"
+cp -r "$root/project/." "$worktree/project/"
+
+(cd "$worktree" && sbt "bench/Jmh/run -rf json -rff $output LiveSetBenchmark LiveMapBenchmark CallGraphBenchmark")
+
+{
+  echo "commit: $(git -C "$root" rev-parse "$commit")"
+  echo "recorded: $(date -u +%Y-%m-%dT%H:%M:%SZ)"
+  echo "java: $(java -version 2>&1 | head -n 1)"
+  echo "cpu: $(grep -m 1 'model name' /proc/cpuinfo 2>/dev/null | cut -d: -f2- | sed 's/^ //' || uname -m)"
+  echo "cores: $(getconf _NPROCESSORS_ONLN)"
+} > "$root/bench/baseline/jmh-baseline.txt"
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.bench
+
+import com.amazon.pvar.merlin.experiments.Main
+import com.amazon.pvar.merlin.ir.FlowgraphUtils
+import dk.brics.tajs.flowgraph.FlowGraph
+import dk.brics.tajs.flowgraph.jsnodes.Node
+import org.openjdk.jmh.annotations.{Level, Param, Scope, Setup, State}
+
+import scala.jdk.CollectionConverters._
+
+/** A benchmark program from `benchmarks/`, loaded once per trial so that TAJS
+  * flowgraph construction is never part of a measurement.
+  *
+  * JMH must run from the repository root, like the experiments.
+  */
+@State(Scope.Benchmark)
+class BenchmarkProgram {
+  @Param(Array("benchmarks/example.0.js", "benchmarks/example.1.js"))
+  var program: String = _
+
+  var flowGraph: FlowGraph = _
+
+  var nodes: IndexedSeq[Node] = _
+
+  @Setup(Level.Trial)
+  def load(): Unit = {
+    flowGraph = Main.flowgraphWithoutBabel(program, false)
+    FlowgraphUtils.clearCaches()
+    FlowgraphUtils.currentFlowGraph = flowGraph
+    nodes = FlowgraphUtils
+      .allNodes(flowGraph)
+      .toList
+      .asScala
+      .collect({ case node: Node => node })
+      .toIndexedSeq
+  }
+}
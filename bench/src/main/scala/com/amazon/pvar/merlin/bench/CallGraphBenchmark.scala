@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.bench
+
+import com.amazon.pvar.merlin.ir.FlowgraphUtils
+import com.amazon.pvar.merlin.livecollections.Scheduler
+import com.amazon.pvar.merlin.solver.CallGraph
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.ThreadParams
+
+import java.util.concurrent.TimeUnit
+import scala.jdk.CollectionConverters._
+import scala.util.Random
+
+/** Measures `CallGraph.addEdge` on edges between the call nodes and functions
+  * of a program. Every edge is inserted twice, to include solvers rediscovering
+  * known edges.
+  *
+  * `addEdges` fills a fresh call graph per invocation and thread. `addEdgeShared`
+  * inserts single edges into one call graph per iteration that all threads share;
+  * run it with `-t <threads>` to measure contended insertion.
+  */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+class CallGraphBenchmark {
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.AverageTime))
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  def addEdges(state: CallGraphBenchmark.EdgeState): CallGraph = {
+    val callGraph = new CallGraph(state.scheduler)
+    state.insertions.foreach(callGraph.addEdge)
+    callGraph
+  }
+
+  @Benchmark
+  @BenchmarkMode(Array(Mode.Throughput))
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  def addEdgeShared(shared: CallGraphBenchmark.SharedGraph, cursor: CallGraphBenchmark.Cursor): Boolean =
+    shared.callGraph.addEdge(cursor.next(shared.edges.insertions))
+}
+
+object CallGraphBenchmark {
+
+  @State(Scope.Benchmark)
+  class EdgeState {
+    @Param(Array("100000"))
+    var edgeCount: Int = _
+
+    var scheduler: Scheduler = _
+    var insertions: Array[CallGraph.Edge] = _
+
+    @Setup(Level.Trial)
+    def setUp(program: BenchmarkProgram): Unit = {
+      scheduler = new Scheduler()
+      val callNodes = FlowgraphUtils.allCallNodes(program.flowGraph).toList.asScala.toIndexedSeq
+      val functions = program.flowGraph.getFunctions.asScala.toIndexedSeq
+      val random = new Random(42)
+      val edges = IndexedSeq.fill(edgeCount)(
+        new CallGraph.Edge(callNodes(random.nextInt(callNodes.size)), functions(random.nextInt(functions.size)))
+      )
+      insertions = random.shuffle(edges ++ edges).toArray
+    }
+
+    @TearDown(Level.Trial)
+    def cancelScheduler(): Unit = scheduler.cancel()
+  }
+
+  /** A call graph shared by all threads, emptied before every iteration. */
+  @State(Scope.Benchmark)
+  class SharedGraph {
+    var edges: EdgeState = _
+    var callGraph: CallGraph = _
+
+    @Setup(Level.Iteration)
+    def createGraph(edgeState: EdgeState): Unit = {
+      edges = edgeState
+      callGraph = new CallGraph(edgeState.scheduler)
+    }
+  }
+
+  /** Each thread walks its own stride of the insertions, so that threads insert
+    * different edges and only meet on the call graph itself.
+    */
+  @State(Scope.Thread)
+  class Cursor {
+    private var position: Int = _
+    private var stride: Int = _
+
+    @Setup(Level.Iteration)
+    def reset(params: ThreadParams): Unit = {
+      position = params.getThreadIndex
+      stride = params.getThreadCount
+    }
+
+    def next(insertions: Array[CallGraph.Edge]): CallGraph.Edge = {
+      val edge = insertions(position % insertions.length)
+      position = (position + stride) % insertions.length
+      edge
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.bench
+
+import com.google.gson.{JsonObject, JsonParser}
+
+import java.nio.file.{Files, Paths}
+import scala.jdk.CollectionConverters._
+
+/** Compares two JMH result files written with `-rf json`, by default a
+  * fresh run against the checked-in `bench/baseline/jmh-baseline.json`.
+  *
+  * Scores in time per operation are worse when higher, throughput scores
+  * (such as those of `LiveMapBenchmark`) are worse when lower. A benchmark
+  * regresses if its score is worse than the baseline score by more than
+  * `threshold` (relative) and by more than the combined score errors of both
+  * runs. Exits with status 1 if any benchmark regressed.
+  *
+  * Usage: CompareResults [baseline.json] current.json [threshold]
+  */
+object CompareResults extends App {
+  val DefaultBaseline = "bench/baseline/jmh-baseline.json"
+
+  if (args.isEmpty || args.length > 3) {
+    System.err.println("Usage: CompareResults [baseline.json] current.json [threshold]")
+    System.exit(2)
+  }
+  val (baselineFile, currentFile) = if (args.length == 1) (DefaultBaseline, args(0)) else (args(0), args(1))
+  val threshold = args.lift(2).map(_.toDouble).getOrElse(0.1)
+
+  private final case class Score(value: Double, error: Double, unit: String)
+
+  private def readResults(description: String, file: String): Map[String, Score] = {
+    val path = Paths.get(file)
+    if (!Files.isRegularFile(path)) {
+      val command = if (file == DefaultBaseline) "bench/baseline/record-baseline.sh" else s"bench/Jmh/run -rf json -rff $file"
+      System.err.println(s"No $description results at $file; record them with $command")
+      System.exit(2)
+    }
+    val results = JsonParser.parseString(Files.readString(path)).getAsJsonArray
+    results.asScala
+      .map(_.getAsJsonObject)
+      .map(result => {
+        val metric = result.getAsJsonObject("primaryMetric")
+        val error = metric.get("scoreError").getAsDouble
+        key(result) -> Score(
+          metric.get("score").getAsDouble,
+          if (error.isNaN) 0.0 else error,
+          metric.get("scoreUnit").getAsString
+        )
+      })
+      .toMap
+  }
+
+  private def key(result: JsonObject): String = {
+    val params = Option(result.getAsJsonObject("params"))
+      .map(_.entrySet().asScala.toSeq.sortBy(_.getKey).map(entry => s"${entry.getKey}=${entry.getValue.getAsString}"))
+      .getOrElse(Seq.empty)
+    (result.get("benchmark").getAsString +: params).mkString(" ")
+  }
+
+  val baseline = readResults("baseline", baselineFile)
+  val current = readResults("current", currentFile)
+  var regressions = 0
+  for ((benchmark, score) <- current.toSeq.sortBy(_._1)) {
+    baseline.get(benchmark) match {
+      case Some(base) if base.unit != score.unit =>
+        println(s"$benchmark: units differ (${base.unit} vs. ${score.unit}), not compared")
+      case Some(base) =>
+        val change = score.value / base.value - 1
+        val worsening = if (score.unit.endsWith("/op")) change else -change
+        val regressed = worsening > threshold && math.abs(score.value - base.value) > score.error + base.error
+        if (regressed) {
+          regressions += 1
+        }
+        val verdict = if (regressed) "REGRESSION" else "ok"
+        println(f"$benchmark: ${base.value}%.3f -> ${score.value}%.3f ${score.unit} (${change * 100}%+.1f%%) $verdict")
+      case None =>
+        println(f"$benchmark: ${score.value}%.3f ${score.unit} (no baseline)")
+    }
+  }
+  baseline.keySet.diff(current.keySet).toSeq.sorted.foreach(benchmark => println(s"$benchmark: missing from current run"))
+  System.exit(if (regressions > 0) 1 else 0)
+}
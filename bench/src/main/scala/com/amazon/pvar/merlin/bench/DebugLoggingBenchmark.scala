@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.bench
+
+import com.amazon.pvar.merlin.DebugUtils
+import com.amazon.pvar.merlin.solver.flowfunctions.{BackwardFlowFunctions, FlowFunctionContext}
+import org.apache.log4j.{Logger, Level => LogLevel}
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import java.util.concurrent.TimeUnit
+
+/** Measures what debug logging costs on the solver hot paths while it is
+  * disabled. Run with `-prof gc` to compare allocations: `eagerMessages` builds
+  * a message for every node the way flow functions did before
+  * `DebugUtils.debug(Supplier)`, `lazyMessages` passes the same message as a
+  * supplier, and `backwardFlowFunctions` applies the (migrated) flow functions.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+class DebugLoggingBenchmark {
+
+  @Benchmark
+  def eagerMessages(logging: DebugLoggingBenchmark.LoggingState, program: BenchmarkProgram): Unit = {
+    program.nodes.foreach(node =>
+      DebugUtils.debug("traversing node: " + node + "[" + node.getIndex + "@" + node.getBlock.getFunction + "]")
+    )
+  }
+
+  @Benchmark
+  def lazyMessages(logging: DebugLoggingBenchmark.LoggingState, program: BenchmarkProgram): Unit = {
+    program.nodes.foreach(node =>
+      DebugUtils.debug(() => "traversing node: " + node + "[" + node.getIndex + "@" + node.getBlock.getFunction + "]")
+    )
+  }
+
+  @Benchmark
+  def backwardFlowFunctions(
+      logging: DebugLoggingBenchmark.LoggingState,
+      state: FlowgraphBenchmark.FlowFunctionState,
+      blackhole: Blackhole
+  ): Unit = {
+    state.queries.foreach(query => {
+      val flowFunctions = new BackwardFlowFunctions(state.solver, state.queryManager, new FlowFunctionContext(query))
+      blackhole.consume(flowFunctions.computeNextStates())
+    })
+  }
+}
+
+object DebugLoggingBenchmark {
+
+  /** Level of the root logger during the trial. Defaults to `OFF`, as in
+    * production runs; `-p level=DEBUG` shows the cost when messages are logged.
+    */
+  @State(Scope.Benchmark)
+  class LoggingState {
+    @Param(Array("OFF"))
+    var level: String = _
+
+    private var previousLevel: LogLevel = _
+
+    @Setup(Level.Trial)
+    def setUp(): Unit = {
+      previousLevel = Logger.getRootLogger.getLevel
+      Logger.getRootLogger.setLevel(LogLevel.toLevel(level))
+    }
+
+    @TearDown(Level.Trial)
+    def tearDown(): Unit = Logger.getRootLogger.setLevel(previousLevel)
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.bench
+
+import com.amazon.pvar.merlin.experiments.ExperimentUtils
+import com.amazon.pvar.merlin.ir.{FlowgraphUtils, NodeState, Value}
+import com.amazon.pvar.merlin.livecollections.Scheduler
+import com.amazon.pvar.merlin.solver.{BackwardMerlinSolver, QueryManager}
+import com.amazon.pvar.merlin.solver.flowfunctions.{BackwardFlowFunctions, FlowFunctionContext}
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+import sync.pds.solver.nodes.{Node => SPDSNode}
+
+import java.util.Optional
+import java.util.concurrent.TimeUnit
+import scala.jdk.CollectionConverters._
+
+/** Measures per-node work of the solvers on real flowgraph nodes: looking up
+  * predecessors, and applying the backward flow functions to the call site
+  * queries of a program.
+  */
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+class FlowgraphBenchmark {
+
+  /** Predecessors of every node of the program, with warm caches. */
+  @Benchmark
+  def predecessorsOfAllNodes(program: BenchmarkProgram, blackhole: Blackhole): Unit = {
+    program.nodes.foreach(node => FlowgraphUtils.predecessorsOf(node).forEach(blackhole.consume(_)))
+  }
+
+  /** Backward flow functions applied at every call site query of the program. */
+  @Benchmark
+  def backwardFlowFunctions(state: FlowgraphBenchmark.FlowFunctionState, blackhole: Blackhole): Unit = {
+    state.queries.foreach(query => {
+      val flowFunctions = new BackwardFlowFunctions(state.solver, state.queryManager, new FlowFunctionContext(query))
+      blackhole.consume(flowFunctions.computeNextStates())
+    })
+  }
+}
+
+object FlowgraphBenchmark {
+
+  /** Flow functions need a solver and query manager to report subqueries to.
+    * Their scheduler is cancelled up front, so that subqueries are rejected
+    * instead of solved and only the flow functions themselves are measured.
+    */
+  @State(Scope.Benchmark)
+  class FlowFunctionState {
+    var queryManager: QueryManager = _
+    var solver: BackwardMerlinSolver = _
+    var queries: IndexedSeq[SPDSNode[NodeState, Value]] = _
+
+    @Setup(Level.Trial)
+    def setUp(program: BenchmarkProgram): Unit = {
+      queries = ExperimentUtils.getAllCallSiteQueries(program.flowGraph).asScala.toIndexedSeq
+      val scheduler = new Scheduler()
+      scheduler.cancel()
+      queryManager = new QueryManager(program.flowGraph, scheduler)
+      solver = queryManager.getOrCreateBackwardSolver(queries.head, Optional.empty())._1
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.bench
+
+import com.amazon.pvar.merlin.livecollections.{LiveSet, Scheduler}
+import com.amazon.pvar.merlin.solver.LiveMap
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.{Blackhole, ThreadParams}
+
+import java.util.concurrent.TimeUnit
+import scala.collection.mutable
+import scala.util.Random
+
+/** Compares `LiveMap` against a map guarded by a single monitor (the previous
+  * `LiveMap` implementation). Each operation is a `get` on a random key from a
+  * fixed key space, with every 64th operation a `put`, mirroring how
+  * `CallGraph` and `PointsToGraph` mostly look up existing sets. Run with
+  * `-t <threads>` to measure contention.
+  */
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+class LiveMapBenchmark {
+
+  @Benchmark
+  def getOrPut(state: LiveMapBenchmark.MapState, operations: LiveMapBenchmark.Operations, blackhole: Blackhole): Unit =
+    operations.next(state.map, state.keyCount, blackhole)
+}
+
+object LiveMapBenchmark {
+  private val putEvery = 64
+
+  /** The operations under test, to run both implementations through the same
+    * benchmark.
+    */
+  trait MapUnderTest {
+    def get(key: Integer): LiveSet[Integer]
+    def put(key: Integer, value: Integer): Unit
+  }
+
+  final class SynchronizedLiveMap(scheduler: Scheduler) extends MapUnderTest {
+    private val backingMap = mutable.HashMap.empty[Integer, LiveSet[Integer]]
+
+    override def get(key: Integer): LiveSet[Integer] = synchronized {
+      backingMap.getOrElseUpdate(key, LiveSet.create(scheduler))
+    }
+
+    override def put(key: Integer, value: Integer): Unit = synchronized {
+      get(key).add(value)
+    }
+  }
+
+  final class ConcurrentLiveMap(scheduler: Scheduler) extends MapUnderTest {
+    private val liveMap = LiveMap.create[Integer, Integer](scheduler)
+
+    override def get(key: Integer): LiveSet[Integer] = liveMap.get(key)
+
+    override def put(key: Integer, value: Integer): Unit = liveMap.put(key, value)
+  }
+
+  @State(Scope.Benchmark)
+  class MapState {
+    @Param(Array("synchronized", "concurrent"))
+    var implementation: String = _
+
+    @Param(Array("10000"))
+    var keyCount: Int = _
+
+    var scheduler: Scheduler = _
+    var map: MapUnderTest = _
+
+    @Setup(Level.Trial)
+    def populate(): Unit = {
+      scheduler = new Scheduler()
+      map = implementation match {
+        case "synchronized" => new SynchronizedLiveMap(scheduler)
+        case "concurrent"   => new ConcurrentLiveMap(scheduler)
+      }
+      // populate all keys up front, so that lookups measure the steady state
+      (0 until keyCount).foreach(key => map.get(key))
+    }
+
+    @TearDown(Level.Trial)
+    def cancelScheduler(): Unit = scheduler.cancel()
+  }
+
+  @State(Scope.Thread)
+  class Operations {
+    private var random: Random = _
+    private var count = 0
+
+    @Setup(Level.Trial)
+    def seed(params: ThreadParams): Unit = {
+      random = new Random(params.getThreadIndex)
+    }
+
+    def next(map: MapUnderTest, keyCount: Int, blackhole: Blackhole): Unit = {
+      val key = random.nextInt(keyCount)
+      count += 1
+      if (count % putEvery == 0) {
+        map.put(key, count % 8)
+      } else {
+        blackhole.consume(map.get(key))
+      }
+    }
+  }
+}
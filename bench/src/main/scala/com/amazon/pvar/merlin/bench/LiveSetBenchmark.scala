@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.bench
+
+import com.amazon.pvar.merlin.livecollections.{LiveSet, Scheduler, TaggedHandler}
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import java.util.concurrent.TimeUnit
+
+/** Measures `LiveSet.add` fanning out to registered handlers, and `onAdd`
+  * replaying the elements already in a set.
+  *
+  * Each invocation waits for the scheduler to run all handlers, so the scores
+  * include task submission and handler execution, not only the set update.
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+class LiveSetBenchmark {
+  @Param(Array("1", "16"))
+  var handlers: Int = _
+
+  @Param(Array("1000"))
+  var elements: Int = _
+
+  private var scheduler: Scheduler = _
+
+  @Setup(Level.Trial)
+  def createScheduler(): Unit = {
+    scheduler = new Scheduler()
+  }
+
+  @TearDown(Level.Trial)
+  def cancelScheduler(): Unit = scheduler.cancel()
+
+  @Benchmark
+  def addWithHandlers(blackhole: Blackhole): Unit = {
+    val set = LiveSet.create[Integer](scheduler)
+    (0 until handlers).foreach(handler => set.onAdd(TaggedHandler(handler, (elem: Integer) => blackhole.consume(elem))))
+    var i = 0
+    while (i < elements) {
+      set.add(i)
+      i += 1
+    }
+    scheduler.waitUntilDone()
+  }
+
+  @Benchmark
+  def onAddReplay(blackhole: Blackhole): Unit = {
+    val set = LiveSet.create[Integer](scheduler)
+    var i = 0
+    while (i < elements) {
+      set.add(i)
+      i += 1
+    }
+    (0 until handlers).foreach(handler => set.onAdd(TaggedHandler(handler, (elem: Integer) => blackhole.consume(elem))))
+    scheduler.waitUntilDone()
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.bench
+
+import com.amazon.pvar.merlin.experiments.ExperimentUtils
+import com.amazon.pvar.merlin.ir.FlowgraphUtils
+import com.amazon.pvar.merlin.livecollections.Scheduler
+import com.amazon.pvar.merlin.solver.QueryManager
+import com.amazon.pvar.merlin.solver.QueryManager.BackwardQuery
+import org.openjdk.jmh.annotations._
+
+import java.util.Optional
+import java.util.concurrent.TimeUnit
+import scala.jdk.CollectionConverters._
+
+/** Solves a single call site query of a program to completion, starting from
+  * a fresh `QueryManager` each time. Flowgraph construction happens once per
+  * trial and is not measured.
+  */
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+class SolveBenchmark {
+
+  @Benchmark
+  def solveSingleQuery(state: SolveBenchmark.QueryState): Int = {
+    state.queryManager.getOrStartBackwardQuery(state.query, Optional.empty())
+    state.queryManager.solve(false)
+    state.queryManager.getCallGraph.size()
+  }
+}
+
+object SolveBenchmark {
+
+  @State(Scope.Benchmark)
+  class QueryState {
+    /** Index into the call site queries of the program, in a stable order. */
+    @Param(Array("0"))
+    var queryIndex: Int = _
+
+    var query: BackwardQuery = _
+    var queryManager: QueryManager = _
+
+    @Setup(Level.Trial)
+    def selectQuery(program: BenchmarkProgram): Unit = {
+      val queries = ExperimentUtils
+        .getAllCallSiteQueries(program.flowGraph)
+        .asScala
+        .toIndexedSeq
+        .sortBy(query => (query.stmt().getNode.getIndex, query.fact().toString))
+      query = queries(queryIndex % queries.size)
+    }
+
+    @Setup(Level.Invocation)
+    def createQueryManager(program: BenchmarkProgram): Unit = {
+      FlowgraphUtils.currentFlowGraph = program.flowGraph
+      queryManager = new QueryManager(program.flowGraph, new Scheduler())
+    }
+
+    @TearDown(Level.Invocation)
+    def cancelQueryManager(): Unit = queryManager.scheduler.cancel()
+  }
+}
@@ -15,9 +15,11 @@
 
 package com.amazon.pvar.merlin;
 
+import com.amazon.pvar.merlin.instrumentation.HandlerCategory;
+import com.amazon.pvar.merlin.instrumentation.Metrics;
 import org.apache.log4j.Logger;
 
-import java.util.Arrays;
+import java.util.function.Supplier;
 
 public class DebugUtils {
     final private static Logger logger = org.apache.log4j.Logger.getRootLogger();
@@ -26,15 +28,21 @@ public class DebugUtils {
         logger.debug(str);
     }
 
+    /**
+     * Logs the message computed by `message` at debug level. The message is only built if debug logging is enabled,
+     * so call sites on hot paths should use this instead of concatenating strings for {@link #debug(String)}.
+     */
+    public static void debug(final Supplier<String> message) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(message.get());
+        }
+    }
+
     public static void warn(final String str) {
         logger.warn(str);
     }
 
     public static boolean isInvocationFound() {
-        final var stackTrace = Thread.currentThread().getStackTrace();
-        return Arrays.stream(stackTrace)
-                .filter(elem -> elem.toString().contains("CallGraph.java:135"))
-                .findFirst()
-                .isPresent();
+        return Metrics.currentCategory() == HandlerCategory.INVOCATION_FOUND;
     }
 }
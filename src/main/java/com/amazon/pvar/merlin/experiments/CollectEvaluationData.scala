@@ -15,9 +15,10 @@
 
 package com.amazon.pvar.merlin.experiments
 
+import com.amazon.pvar.merlin.instrumentation.{HandlerCategory, MemoryMonitor, Metrics, WorkerThreadTracker}
 import com.amazon.pvar.merlin.ir.FlowgraphUtils
 import com.amazon.pvar.merlin.livecollections.Scheduler
-import com.amazon.pvar.merlin.solver.{HandlerStats, QueryManager}
+import com.amazon.pvar.merlin.solver.{DependencyTracking, HandlerStats, QueryManager, QueryResult}
 import com.amazon.pvar.merlin.solver.flowfunctions.AbstractFlowFunctions
 import QueryManager.BackwardQuery
 import dk.brics.tajs.flowgraph.{FlowGraph, SourceLocation}
@@ -31,7 +32,7 @@ import io.circe.syntax._
 import java.io.File
 import java.lang.management.ManagementFactory
 import java.time.Instant
-import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.{Callable, Executors, ForkJoinPool}
 import scala.concurrent.Future
 import scala.concurrent.ExecutionContext.Implicits.global
 import scala.concurrent._
@@ -59,21 +60,122 @@ final case class ExperimentResult(
     fullFilePath: String = "unknown",
     threadCount: Int = -1,
     tajsNodeIndices: Seq[Int] = Seq.empty[Int],
-    iterations: Int = -1
+    iterations: Int = -1,
+    perQueryTimeoutInMillis: Long = -1, // -1 if queries were only subject to the batch timeout
+    numberOfTimedOutQueries: Long = -1,
+    dependencyTracking: String = "FULL",
+    peakHeapUsageInBytes: Long = -1, // sum of the peak usages of the heap pools while solving
+    peakLiveHeapInBytes: Long = -1, // largest heap usage after a GC while solving, -1 if there was no GC
+    allocatedBytes: Long = -1, // bytes allocated by the scheduler workers, counted from their creation
+    solverStates: Long = -1, // states reached by all solvers
+    maxSolverStates: Int = -1, // states reached by the largest solver
+    solverStatesPercentiles: Map[String, Int] = Map.empty, // "p50", "p90" and "p99" of the states reached per solver
+    flowgraphConstructionTimeInMillis: Long = -1, // not included in runningTimeInMillis
+    warmupIterations: Int = 0,
+    measuredIterations: Int = 1,
+    runningTimeSamplesInMillis: Seq[Long] = Seq.empty, // one per measured iteration
+    cpuTimeSamplesInMillis: Seq[Long] = Seq.empty,
+    runningTimeCI95InMillis: Seq[Double] = Seq.empty, // 95% confidence interval of the mean, as [low, high]
+    cpuTimeCI95InMillis: Seq[Double] = Seq.empty,
+    parallelBatches: Int = 1, // number of batches run concurrently with this one, including itself
+    blockedTimeInMillis: Long = -1, // time workers spent blocked on monitors, only recorded in thread sweeps
+    waitedTimeInMillis: Long = -1, // time workers spent waiting or parked (including idle), only in thread sweeps
+    workerThreads: Int = -1, // scheduler workers created, at most threadCount at a time
+    cpuTimeByCategoryInMillis: Map[String, Long] = Map.empty // only recorded in thread sweeps
 )
 
 
 object CollectEvaluationData extends App {
   val debugFlag = false
   val timeout = 5.minutes
+  // When set, each requested query is cancelled individually once it exceeds this timeout
+  val perQueryTimeout: Option[FiniteDuration] = None
+  // Dependency bookkeeping is only needed for error attribution, so it can be turned off for throughput runs
+  val dependencyTracking = DependencyTracking.FULL
+  val dependencySampleRate = 0.1
+  // Iterations per batch: warmup iterations let the JIT compile the solvers and load TAJS/SPDS classes, and the
+  // running and CPU times reported are the medians of the measured iterations
+  val warmupIterations = 0
+  val measuredIterations = 1
+  // Number of batches of a benchmark run concurrently, each on its own share of `threadCount` threads. Memory is not
+  // measured when running batches concurrently, since heap usage cannot be attributed to a batch
+  val parallelBatches = 1
+  // When non-empty, run all benchmarks once per thread count instead, and report how the analysis scales
+  val threadSweep: Seq[Int] = Seq.empty
   var threadCount = new DynamicVariable(Runtime.getRuntime.availableProcessors())
-  runOnSyntheticBenchmarks(os.pwd / "benchmarks", resultsDir / "synth")
-  threadCount.withValue(1)(
-    runOnSyntheticBenchmarks(os.pwd / "benchmarks", resultsDir / "synthSingle")
-  )
+  // The programs to run on, e.g. ones written by SyntheticProgramGenerator, can be given as the only argument
+  val benchDir = args.headOption.map(dir => os.Path(dir, os.pwd)).getOrElse(os.pwd / "benchmarks")
+  if (threadSweep.nonEmpty) {
+    runThreadSweep(benchDir, resultsDir / "sweep")
+  } else {
+    runOnSyntheticBenchmarks(benchDir, resultsDir / "synth")
+    threadCount.withValue(1)(
+      runOnSyntheticBenchmarks(benchDir, resultsDir / "synthSingle")
+    )
+  }
+
+  private def runThreadSweep(benchDir: os.Path, dataDir: os.Path): Unit = {
+    // Both slow down the analysis, so they are only enabled for the sweep
+    Metrics.setCpuTimeTracking(true)
+    WorkerThreadTracker.setContentionMonitoring(true)
+    val resultsByThreads =
+      try {
+        threadSweep.map(threads =>
+          threads -> threadCount.withValue(threads)(runOnSyntheticBenchmarks(benchDir, dataDir / s"t$threads"))
+        )
+      } finally {
+        WorkerThreadTracker.setContentionMonitoring(false)
+        Metrics.setCpuTimeTracking(false)
+      }
+    val table = scalingTable(resultsByThreads)
+    println(table)
+    os.write.over(ensureDirExists(dataDir) / "scaling.txt", table)
+  }
+
+  /** Per benchmark and thread count: total running and CPU time over all
+    * batches, speedup and parallel efficiency relative to the smallest thread
+    * count, the share of worker time spent blocked on monitors, and the
+    * handler category using the most CPU time.
+    */
+  def scalingTable(resultsByThreads: Seq[(Int, Seq[ExperimentResult])]): String = {
+    val rows = for {
+      (threads, results) <- resultsByThreads
+      (benchmark, benchmarkResults) <- results.groupBy(_.benchmarkName)
+    } yield (benchmark, threads, benchmarkResults)
+    val header = f"${"benchmark"}%-24s ${"threads"}%7s ${"time ms"}%10s ${"cpu ms"}%10s ${"speedup"}%8s " +
+      f"${"effic."}%7s ${"blocked"}%8s  top category (cpu share)"
+    val lines = rows.groupBy(_._1).toSeq.sortBy(_._1).flatMap({ case (benchmark, benchmarkRows) =>
+      val sorted = benchmarkRows.sortBy(_._2)
+      val (baseThreads, baseResults) = (sorted.head._2, sorted.head._3)
+      val baseTime = baseResults.map(_.runningTimeInMillis).sum.toDouble
+      sorted.map({ case (_, threads, results) =>
+        val time = results.map(_.runningTimeInMillis).sum
+        val cpuTime = results.map(_.cpuTimeInMillis).sum
+        val speedup = if (time > 0) baseTime / time else Double.NaN
+        val efficiency = speedup * baseThreads / threads
+        val blocked = results.map(_.blockedTimeInMillis).filter(_ >= 0).sum
+        val blockedShare = if (time > 0) blocked.toDouble / (time.toDouble * threads) else Double.NaN
+        val byCategory = results.flatMap(_.cpuTimeByCategoryInMillis).groupMapReduce(_._1)(_._2)(_ + _)
+        val topCategory = byCategory.maxByOption(_._2) match {
+          case Some((category, categoryTime)) if cpuTime > 0 => f"$category (${100.0 * categoryTime / cpuTime}%.0f%%)"
+          case _ => "-"
+        }
+        f"$benchmark%-24s $threads%7d $time%10d $cpuTime%10d $speedup%8.2f ${efficiency * 100}%6.1f%% " +
+          f"${blockedShare * 100}%7.1f%%  $topCategory"
+      })
+    })
+    (header +: lines).mkString("\n")
+  }
+
+  private def cpuTimeByCategory(): Map[String, Long] =
+    HandlerCategory.values().toSeq
+      .map(category => category.toString -> Metrics.of(category).cpuTimeNanos.sum().nanos.toMillis)
+      .filter(_._2 > 0)
+      .toMap
 
-  private def runOnSyntheticBenchmarks(benchDir: os.Path, dataDir: os.Path): Unit = {
-    val synthBenchmarks = os.walk(benchDir)
+  private def runOnSyntheticBenchmarks(benchDir: os.Path, dataDir: os.Path): Seq[ExperimentResult] = {
+    // Not recursive, so programs generated into a subdirectory are only run when asked for
+    val synthBenchmarks = os.list(benchDir)
       .filter(_.ext.endsWith("js"))
     val random = new Random(42)
     val batches = Seq((1, 10), (5, 10), (10, 5), (50, 2), (100, 2), (250, 2), (500, 2), (1000, 1), (-1, 1))
@@ -85,7 +187,9 @@ object CollectEvaluationData extends App {
 
   /** batchSizesAndCounts contains list of (batchSize, numberOfBatchesOfThatSize) tuples */
   private def runRandomQueryBatches(jsFile: String, batchSizesAndCounts: Seq[(Int, Int)], random: Random, reportFile: os.Path): Seq[ExperimentResult] = {
+    val flowgraphStart = System.nanoTime()
     val flowGraph = Main.flowgraphWithoutBabel(jsFile, debugFlag)
+    val flowgraphConstructionTime = (System.nanoTime() - flowgraphStart).nanos
     val callSites = FlowgraphUtils.allCallNodes(flowGraph)
       // Filter out internal TAJS function calls
       .filter(call => call.getTajsFunctionName == null)
@@ -101,7 +205,9 @@ object CollectEvaluationData extends App {
       shuffled = random.shuffle(possibleCallSiteQueries)
       batchesOfThisSize <- shuffled.grouped(if (batchSize >= 0) batchSize else possibleCallSiteQueries.size).take(numberBatches).toSeq
     } yield batchesOfThisSize
-    batches.map(batch => {
+    val runsInParallel = parallelBatches > 1
+    val batchThreads = if (runsInParallel) math.max(1, threadCount.value / parallelBatches) else threadCount.value
+    val experiments = batches.map(batch => () => {
       val (batchSize, isWholeProg) = if (batch.size < 0) {
         (possibleCallSiteQueries.size, true)
       } else {
@@ -110,9 +216,36 @@ object CollectEvaluationData extends App {
       val batchStr = batchSize + "." + batch.map(_._2).hashCode().toHexString
       val batchResultFile = os.Path(reportFile.toString.stripSuffix(reportFile.ext) + batchStr + ".json")
       println(s"BATCH SIZE: ${batch.size}")
-      val batchResults = runExperiment(os.Path(new File(jsFile).getAbsolutePath), flowGraph, batch, batchResultFile, isWholeProgram = isWholeProg).copy(isWholeProgram = isWholeProg)
+      val batchResults = runRepeatedExperiment(
+        os.Path(new File(jsFile).getAbsolutePath),
+        flowGraph,
+        batch,
+        batchResultFile,
+        isWholeProgram = isWholeProg,
+        flowgraphConstructionTimeInMillis = flowgraphConstructionTime.toMillis,
+        threads = batchThreads,
+        isolated = !runsInParallel
+      ).copy(isWholeProgram = isWholeProg)
       batchResults
     })
+    if (runsInParallel) {
+      // global state is set up once for all batches, since they share the flowgraph
+      HandlerStats.reset()
+      FlowgraphUtils.clearCaches()
+      FlowgraphUtils.currentFlowGraph = flowGraph
+      val batchPool = Executors.newFixedThreadPool(parallelBatches)
+      try {
+        experiments
+          .map(experiment => batchPool.submit(new Callable[ExperimentResult] {
+            override def call(): ExperimentResult = experiment()
+          }))
+          .map(_.get())
+      } finally {
+        batchPool.shutdown()
+      }
+    } else {
+      experiments.map(experiment => experiment())
+    }
   }
 
 
@@ -123,37 +256,86 @@ object CollectEvaluationData extends App {
     isWholeProgram: Boolean = false
   ): ExperimentResult = {
     println(s"${Instant.now}: $inputFile -> $resultsFile")
+    val result = measureExperiment(inputFile, flowGraph, backwardQueries, isWholeProgram, threadCount.value, isolated = true)
+    os.write.over(resultsFile, result.asJson.toString)
+    result
+  }
+
+  /** Like `runExperiment`, but runs `warmupIterations` unrecorded iterations
+    * first, and then `measuredIterations` recorded ones. The result is that of
+    * the last iteration, with the median running and CPU times of all
+    * measured iterations, their samples and 95% confidence intervals.
+    */
+  def runRepeatedExperiment(inputFile: os.Path,
+    flowGraph: FlowGraph,
+    backwardQueries: Iterable[(BackwardQuery, Int)],
+    resultsFile: os.Path,
+    isWholeProgram: Boolean = false,
+    flowgraphConstructionTimeInMillis: Long = -1,
+    threads: Int = threadCount.value,
+    isolated: Boolean = true
+  ): ExperimentResult = {
+    println(s"${Instant.now}: $inputFile -> $resultsFile ($warmupIterations warmup, $measuredIterations measured iterations)")
+    def measure() = measureExperiment(inputFile, flowGraph, backwardQueries, isWholeProgram, threads, isolated)
+    (0 until warmupIterations).foreach(_ => measure())
+    val measured = (0 until measuredIterations).map(_ => measure())
+    val runningTimes = measured.map(_.runningTimeInMillis)
+    val cpuTimes = measured.map(_.cpuTimeInMillis)
+    val (runningTimeLow, runningTimeHigh) = SampleStatistics.confidenceInterval95(runningTimes.map(_.toDouble))
+    val (cpuTimeLow, cpuTimeHigh) = SampleStatistics.confidenceInterval95(cpuTimes.map(_.toDouble))
+    val result = measured.last.copy(
+      runningTimeInMillis = SampleStatistics.median(runningTimes.map(_.toDouble)).round,
+      cpuTimeInMillis = SampleStatistics.median(cpuTimes.map(_.toDouble)).round,
+      flowgraphConstructionTimeInMillis = flowgraphConstructionTimeInMillis,
+      warmupIterations = warmupIterations,
+      measuredIterations = measuredIterations,
+      runningTimeSamplesInMillis = runningTimes,
+      cpuTimeSamplesInMillis = cpuTimes,
+      runningTimeCI95InMillis = Seq(runningTimeLow, runningTimeHigh),
+      cpuTimeCI95InMillis = Seq(cpuTimeLow, cpuTimeHigh)
+    )
+    os.write.over(resultsFile, result.asJson.toString)
+    result
+  }
+
+  /** @param isolated
+    *   whether no other experiment runs at the same time. Otherwise, global
+    *   state must be set up by the caller, and memory is not measured.
+    */
+  private def measureExperiment(inputFile: os.Path,
+    flowGraph: FlowGraph,
+    backwardQueries: Iterable[(BackwardQuery, Int)],
+    isWholeProgram: Boolean,
+    tc: Int,
+    isolated: Boolean
+  ): ExperimentResult = {
     val linesInFile = os.read(inputFile).linesIterator.size
-    HandlerStats.reset()
-    FlowgraphUtils.clearCaches()
-    FlowgraphUtils.currentFlowGraph = flowGraph
+    if (isolated) {
+      HandlerStats.reset()
+      FlowgraphUtils.clearCaches()
+      FlowgraphUtils.currentFlowGraph = flowGraph
+    }
     val nodeIndices = backwardQueries.map({
       case (query, _) => query.stmt().getNode.getIndex
     }).toSeq
-    val tc = threadCount.value
-    val queryManager = new QueryManager(flowGraph, new Scheduler(
-      new ForkJoinPool(tc)))
-    // Collect thread ids to measure CPU time:
-    val threadIds = new java.util.concurrent.ConcurrentSkipListSet[Long]()
-    for (_ <- 0 until 2 * Scheduler.threadCount) {
-      queryManager.scheduler.addThread({
-        threadIds.add(Thread.currentThread().getId())
-        Thread.sleep(100)
-      })
+    // workers are tracked from their creation, so their CPU time and allocations are attributed to this experiment
+    val workers = new WorkerThreadTracker()
+    val queryManager = new QueryManager(flowGraph, Scheduler.create(tc, workers), dependencyTracking, dependencySampleRate)
+    val memoryMonitor = if (isolated) Some(MemoryMonitor.start()) else None
+    val solve: Unit => (Int, Int) = _ => solveQueries(queryManager, backwardQueries.map(_._1))
+    val (maybeTime, memory) = if (isolated) {
+      CollectEvaluationData.measureTimeAndMemory(solve, timeout, _ => queryManager.cancel())
+    } else {
+      (CollectEvaluationData.measureTime(solve, timeout, _ => queryManager.cancel()), -1L)
     }
-    queryManager.scheduler.waitUntilDone()
-    val threadIdSet = threadIds.asScala.toSet
-    val threadMXBean = ManagementFactory.getThreadMXBean()
-    val initialCPUTime = threadIdSet.map(threadMXBean.getThreadCpuTime).sum
-    val (maybeTime, memory) = CollectEvaluationData.measureTimeAndMemory(
-      _ => solveQueries(queryManager, backwardQueries.map(_._1)),
-      timeout,
-      _ => queryManager.cancel()
-    )
-    val finalCPUTime = threadIdSet.map(threadMXBean.getThreadCpuTime).sum
+    val workerUsage = workers.usage()
+    val peakHeapUsage = memoryMonitor.map(_.peakHeapUsage()).getOrElse(-1L)
+    val peakLiveHeap = memoryMonitor.map(_.peakLiveHeap()).getOrElse(-1L)
+    memoryMonitor.foreach(_.close())
+    val solverStates = queryManager.solverStateCounts
     val result = ExperimentResult(
       runningTimeInMillis = maybeTime.map(_._2.toMillis).getOrElse(timeout.toMillis),
-      cpuTimeInMillis = (finalCPUTime - initialCPUTime).nanos.toMillis,
+      cpuTimeInMillis = workerUsage.cpuTimeNanos.nanos.toMillis,
       memoryUsageInBytes = memory,
       numberOfRequestedQueries = backwardQueries.size,
       numberOfAllQueries = queryManager.queryCount,
@@ -170,20 +352,50 @@ object CollectEvaluationData extends App {
       linesInFile = linesInFile,
       threadCount = tc,
       tajsNodeIndices = nodeIndices,
-      iterations = maybeTime.map(_._1).getOrElse(-1)
+      iterations = maybeTime.map(_._1._1).getOrElse(-1),
+      perQueryTimeoutInMillis = perQueryTimeout.map(_.toMillis).getOrElse(-1L),
+      numberOfTimedOutQueries = maybeTime.map(_._1._2.toLong).getOrElse(-1L),
+      dependencyTracking = dependencyTracking.toString,
+      peakHeapUsageInBytes = peakHeapUsage,
+      peakLiveHeapInBytes = peakLiveHeap,
+      allocatedBytes = workerUsage.allocatedBytes,
+      blockedTimeInMillis = workerUsage.blockedTimeMillis,
+      waitedTimeInMillis = workerUsage.waitedTimeMillis,
+      workerThreads = workerUsage.threads,
+      cpuTimeByCategoryInMillis = if (isolated) cpuTimeByCategory() else Map.empty,
+      solverStates = solverStates.map(_.toLong).sum,
+      maxSolverStates = solverStates.maxOption.getOrElse(0),
+      solverStatesPercentiles = solverStatesPercentiles(solverStates),
+      parallelBatches = if (isolated) 1 else parallelBatches
     )
     queryManager.printStatus() // ensure nothing is garbage collected before the measurement is taken
-    os.write.over(resultsFile, result.asJson.toString)
     result
   }
 
-  private def solveQueries(queryManager: QueryManager, queries: Iterable[BackwardQuery]): Int = {
-    queries.foreach(query => {
-      queryManager.getOrStartBackwardQuery(query, Optional.empty())
-    })
+  private def solverStatesPercentiles(solverStates: Seq[Int]): Map[String, Int] =
+    if (solverStates.isEmpty) {
+      Map.empty
+    } else {
+      Seq(50, 90, 99)
+        .map(p => s"p$p" -> SampleStatistics.percentile(solverStates.map(_.toDouble), p).toInt)
+        .toMap
+    }
+
+  /** Returns the number of fixpoint iterations and the number of queries that timed out. */
+  private def solveQueries(queryManager: QueryManager, queries: Iterable[BackwardQuery]): (Int, Int) = {
+    val timedOut = perQueryTimeout match {
+      case Some(queryTimeout) =>
+        val results = queryManager.solveWithDeadlines(queries, java.time.Duration.ofMillis(queryTimeout.toMillis))
+        results.values.count(_.status == QueryResult.Status.TIMED_OUT)
+      case None =>
+        queries.foreach(query => {
+          queryManager.getOrStartBackwardQuery(query, Optional.empty())
+        })
+        0
+    }
     val its = queryManager.solve(debugFlag)
     System.err.println(s"CG status after solve: ${queryManager.getCallGraph.status()}")
-    its
+    (its, timedOut)
   }
 
 
@@ -15,6 +15,7 @@
 
 package com.amazon.pvar.merlin.experiments;
 
+import com.amazon.pvar.merlin.solver.DependencyTracking;
 import org.apache.commons.cli.*;
 
 import java.io.File;
@@ -27,6 +28,8 @@ public class ExperimentOptions {
     // Default sink list is adapted from taser: https://github.com/cs-au-dk/taser/blob/master/src/DefaultPolicy.ts
     private static final String SINK_DEFAULT_LOCATION = "scripts/evaluation/sinks.txt";
 
+    private static final double DEFAULT_DEPENDENCY_SAMPLE_RATE = 0.1;
+
     private static final Option analysisDir = Option.builder("d")
             .argName("dir")
             .hasArg()
@@ -79,6 +82,41 @@ public class ExperimentOptions {
             .hasArgs()
             .build();
 
+    private static final Option dependencyTracking = Option.builder("dt")
+            .argName("mode")
+            .hasArg()
+            .longOpt("dependency-tracking")
+            .desc("How much of the query dependency graph to record: off, sampled or full (the default). The graph " +
+                    "is only needed to attribute errors to the queries they impact.")
+            .build();
+
+    private static final Option dependencySampleRate = Option.builder("dsr")
+            .argName("rate")
+            .hasArg()
+            .longOpt("dependency-sample-rate")
+            .desc("The fraction of queries whose dependencies are recorded with `--dependency-tracking sampled` " +
+                    "(default: " + DEFAULT_DEPENDENCY_SAMPLE_RATE + ")")
+            .build();
+
+    private static final Option traceFile = Option.builder("tr")
+            .argName("trace-file")
+            .hasArg()
+            .longOpt("trace")
+            .desc("Record a timeline of every query and write it as Chrome trace-event JSON to the given file. When " +
+                    "analyzing a directory, the name of each program is added to the file name.")
+            .build();
+
+    private static final Option statusPort = Option.builder("sp")
+            .argName("port")
+            .hasArg()
+            .longOpt("status-port")
+            .desc("Serve the analysis status as JSON at http://localhost:<port>/status while running")
+            .build();
+
+    private static final Option jmx = Option.builder("jmx")
+            .desc("Publish the analysis status as a JMX MXBean while running")
+            .build();
+
     private static final Options opts = new Options()
             .addOption(analysisDir)
             .addOption(analysisFile)
@@ -86,6 +124,11 @@ public class ExperimentOptions {
             .addOption(outputFile)
             .addOption(nodeSinkFile)
             .addOption(taintQueriesToAnalyze)
+            .addOption(dependencyTracking)
+            .addOption(dependencySampleRate)
+            .addOption(traceFile)
+            .addOption(statusPort)
+            .addOption(jmx)
             .addOption(help);
 
     private static CommandLine commandLine;
@@ -139,4 +182,38 @@ public class ExperimentOptions {
     public static Optional<String> getJsonSummaryFile() {
         return Optional.ofNullable(commandLine.getOptionValue("j"));
     }
+
+    public static DependencyTracking getDependencyTracking() {
+        if (commandLine == null || !commandLine.hasOption("dt")) {
+            return DependencyTracking.FULL;
+        } else {
+            return DependencyTracking.parse(commandLine.getOptionValue("dt"));
+        }
+    }
+
+    public static double getDependencySampleRate() {
+        if (commandLine == null || !commandLine.hasOption("dsr")) {
+            return DEFAULT_DEPENDENCY_SAMPLE_RATE;
+        } else {
+            return Double.parseDouble(commandLine.getOptionValue("dsr"));
+        }
+    }
+
+    public static Optional<String> getTraceFile() {
+        if (commandLine == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(commandLine.getOptionValue("tr"));
+    }
+
+    public static Optional<Integer> getStatusPort() {
+        if (commandLine == null || !commandLine.hasOption("sp")) {
+            return Optional.empty();
+        }
+        return Optional.of(Integer.parseInt(commandLine.getOptionValue("sp")));
+    }
+
+    public static boolean publishJmxStatus() {
+        return commandLine != null && commandLine.hasOption("jmx");
+    }
 }
@@ -15,15 +15,19 @@
 
 package com.amazon.pvar.merlin.experiments;
 
+import com.amazon.pvar.merlin.instrumentation.QueryTracer;
+import com.amazon.pvar.merlin.instrumentation.StatusServer;
 import com.amazon.pvar.merlin.ir.NodeState;
 import com.amazon.pvar.merlin.ir.Value;
 import com.amazon.pvar.merlin.solver.BackwardMerlinSolver;
 import com.amazon.pvar.merlin.solver.Query;
 import com.amazon.pvar.merlin.solver.QueryManager;
+import com.amazon.pvar.merlin.solver.QueryManagerStatus;
 import dk.brics.tajs.flowgraph.FlowGraph;
 import org.apache.log4j.Level;
 import sync.pds.solver.nodes.Node;
 
+import javax.management.JMException;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -160,6 +164,54 @@ public class Main {
         System.out.println("Time per query:\t\t\t" + timePerQuery + "ms");
     }
 
+    /**
+     * Starts the status endpoints requested on the command line.
+     */
+    private static List<AutoCloseable> startStatusMonitors(QueryManager queryManager, String jsFile) {
+        final var monitors = new ArrayList<AutoCloseable>();
+        ExperimentOptions.getStatusPort().ifPresent(port -> {
+            try {
+                final var server = StatusServer.start(port, () -> queryManager.statusSnapshot().toJson());
+                System.err.println("Status served at http://localhost:" + server.port() + "/status");
+                monitors.add(server);
+            } catch (IOException e) {
+                System.err.println("Could not start status server: " + e);
+            }
+        });
+        if (ExperimentOptions.publishJmxStatus()) {
+            try {
+                monitors.add(QueryManagerStatus.register(queryManager, jsFile));
+            } catch (JMException e) {
+                System.err.println("Could not register status MXBean: " + e);
+            }
+        }
+        return monitors;
+    }
+
+    private static void writeTrace(QueryTracer tracer, String jsFile) {
+        final var traceFile = Paths.get(ExperimentOptions.getTraceFile().orElseThrow());
+        final Path target;
+        if (ExperimentOptions.isAnalyzeDirectory()) {
+            final var program = Paths.get(jsFile).getFileName().toString().replaceFirst("\\.js$", "");
+            final var name = traceFile.getFileName().toString();
+            final int extension = name.lastIndexOf('.');
+            target = traceFile.resolveSibling(extension < 0
+                    ? name + "." + program
+                    : name.substring(0, extension) + "." + program + name.substring(extension));
+        } else {
+            target = traceFile;
+        }
+        try {
+            tracer.writeChromeTrace(target);
+            System.err.println("Trace written to " + target);
+            if (tracer.droppedEvents() > 0) {
+                System.err.println("Trace is incomplete: " + tracer.droppedEvents() + " events were dropped");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     private static void runExperiment(String jsFile, FileWriter outputWriter) {
         boolean debugFlag = ExperimentOptions.dumpFlowGraph();
         if (debugFlag) {
@@ -180,7 +232,10 @@ public class Main {
         }
         ExperimentUtils.Timer<Node<NodeState, Value>> timer = new ExperimentUtils.Timer<>();
         timer.start();
-        final var queryManager = QueryManager.of(flowGraph);
+        final var queryManager = QueryManager.of(flowGraph, ExperimentOptions.getDependencyTracking(),
+                ExperimentOptions.getDependencySampleRate());
+        ExperimentOptions.getTraceFile().ifPresent(traceFile -> queryManager.setTracer(new QueryTracer()));
+        final var statusMonitors = startStatusMonitors(queryManager, jsFile);
         final List<Node<NodeState, Value>> queriesToAnalyze;
         if (!ExperimentOptions.getTaintQueriesToAnalyze().isEmpty()) {
             queriesToAnalyze = new ArrayList<>();
@@ -220,6 +275,14 @@ public class Main {
         });
         queryManager.solve(false);
         timer.stop();
+        statusMonitors.forEach(monitor -> {
+            try {
+                monitor.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        queryManager.getTracer().ifPresent(tracer -> writeTrace(tracer, jsFile));
         taintQueries.forEach(query -> {
             final var errors = queryManager.errorsImpactingQuery(new Query(query, false));
             if (!errors.isEmpty()) {
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.experiments
+
+import io.circe.generic.extras.Configuration
+import io.circe.generic.extras.auto._
+import io.circe.parser.decode
+import org.apache.commons.csv.{CSVFormat, CSVParser, CSVPrinter}
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardOpenOption}
+import scala.jdk.CollectionConverters._
+
+/** A flat CSV store of `ExperimentResult`s across runs, with a regression gate.
+  *
+  * Each row is one batch result, labelled with the run it belongs to.
+  * Results of a run are grouped by configuration (benchmark, requested
+  * queries, thread count), and repeated measurements of a configuration are
+  * summarized by their median and variance.
+  *
+  * Usage:
+  *   - ResultsDatabase ingest <results-dir> <store.csv> <run>
+  *   - ResultsDatabase summarize <store.csv> <run>
+  *   - ResultsDatabase compare <store.csv> <baseline-run> <run> [threshold]
+  *
+  * `compare` exits with status 1 if any configuration regressed.
+  */
+object ResultsDatabase {
+
+  // results written before fields were added to `ExperimentResult` still decode, using the defaults
+  private implicit val jsonConfiguration: Configuration = Configuration.default.withDefaults
+
+  final case class StoredResult(
+      run: String,
+      configuration: String,
+      file: String,
+      runningTimeInMillis: Long,
+      cpuTimeInMillis: Long,
+      memoryUsageInBytes: Long,
+      callEdgesFound: Long
+  )
+
+  /** A metric compared by the regression gate. Metrics where more is better
+    * regress when they decrease.
+    */
+  final case class Metric(name: String, value: StoredResult => Long, higherIsBetter: Boolean)
+
+  val metrics: Seq[Metric] = Seq(
+    Metric("runningTimeInMillis", _.runningTimeInMillis, higherIsBetter = false),
+    Metric("cpuTimeInMillis", _.cpuTimeInMillis, higherIsBetter = false),
+    Metric("memoryUsageInBytes", _.memoryUsageInBytes, higherIsBetter = false),
+    Metric("callEdgesFound", _.callEdgesFound, higherIsBetter = true)
+  )
+
+  private val header = Seq(
+    "run", "configuration", "file", "runningTimeInMillis", "cpuTimeInMillis", "memoryUsageInBytes", "callEdgesFound"
+  )
+
+  final case class Summary(count: Int, median: Double, variance: Double) {
+    def standardError: Double = if (count > 1) math.sqrt(variance / count) else 0.0
+  }
+
+  final case class Comparison(configuration: String, metric: Metric, baseline: Summary, current: Summary) {
+    def relativeChange: Double = current.median / baseline.median - 1
+
+    /** Whether the change is worse than `threshold`, and larger than the noise of both runs. */
+    def isRegression(threshold: Double): Boolean = {
+      val worse = if (metric.higherIsBetter) -relativeChange else relativeChange
+      val noise = 2 * math.sqrt(math.pow(baseline.standardError, 2) + math.pow(current.standardError, 2))
+      worse > threshold && math.abs(current.median - baseline.median) > noise
+    }
+  }
+
+  def configurationOf(result: ExperimentResult): String = {
+    val scope = if (result.isWholeProgram) "whole" else s"q${result.numberOfRequestedQueries}"
+    val queries = result.queryIndices.toSeq.sorted.hashCode.toHexString
+    s"${result.benchmarkName}/$scope/$queries/t${result.threadCount}"
+  }
+
+  def readStore(store: os.Path): Seq[StoredResult] = {
+    if (!os.exists(store)) {
+      Seq.empty
+    } else {
+      val parser = CSVParser.parse(store.toNIO, StandardCharsets.UTF_8, CSVFormat.DEFAULT.withFirstRecordAsHeader())
+      try {
+        parser.getRecords.asScala.toSeq.map(record =>
+          StoredResult(
+            record.get("run"),
+            record.get("configuration"),
+            record.get("file"),
+            record.get("runningTimeInMillis").toLong,
+            record.get("cpuTimeInMillis").toLong,
+            record.get("memoryUsageInBytes").toLong,
+            record.get("callEdgesFound").toLong
+          )
+        )
+      } finally {
+        parser.close()
+      }
+    }
+  }
+
+  /** Appends all results in `resultsDir` to `store` under `run`. Files already
+    * ingested for `run` are skipped. Returns the number of results added.
+    */
+  def ingest(resultsDir: os.Path, store: os.Path, run: String): Int = {
+    val known = readStore(store).filter(_.run == run).map(_.file).toSet
+    val results = os
+      .walk(resultsDir)
+      .filter(path => os.isFile(path) && path.ext == "json")
+      .filterNot(path => known.contains(path.toString))
+      .flatMap(path =>
+        decode[ExperimentResult](os.read(path)) match {
+          case Right(result) =>
+            Some(StoredResult(
+              run,
+              configurationOf(result),
+              path.toString,
+              result.runningTimeInMillis,
+              result.cpuTimeInMillis,
+              result.memoryUsageInBytes,
+              result.callEdgesFound
+            ))
+          case Left(error) =>
+            System.err.println(s"Skipping $path: ${error.getMessage}")
+            None
+        }
+      )
+    val isNewStore = !os.exists(store)
+    val writer = Files.newBufferedWriter(
+      store.toNIO, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND
+    )
+    val printer = new CSVPrinter(writer, CSVFormat.DEFAULT)
+    try {
+      if (isNewStore) {
+        printer.printRecord(header.asJava)
+      }
+      results.foreach(result =>
+        printer.printRecord(
+          Seq[Any](
+            result.run, result.configuration, result.file, result.runningTimeInMillis, result.cpuTimeInMillis,
+            result.memoryUsageInBytes, result.callEdgesFound
+          ).map(_.toString).asJava
+        )
+      )
+    } finally {
+      printer.close()
+    }
+    results.size
+  }
+
+  /** Median and sample variance of `values`, ignoring unmeasured (negative) values. */
+  def summarize(values: Seq[Long]): Option[Summary] = {
+    val measured = values.filter(_ >= 0).map(_.toDouble)
+    if (measured.isEmpty) {
+      None
+    } else {
+      Some(Summary(measured.size, SampleStatistics.median(measured), SampleStatistics.variance(measured)))
+    }
+  }
+
+  def summaries(results: Seq[StoredResult], run: String): Map[(String, Metric), Summary] =
+    (for {
+      (configuration, runResults) <- results.filter(_.run == run).groupBy(_.configuration).toSeq
+      metric <- metrics
+      summary <- summarize(runResults.map(metric.value))
+    } yield (configuration, metric) -> summary).toMap
+
+  def compare(results: Seq[StoredResult], baselineRun: String, run: String): Seq[Comparison] = {
+    val baseline = summaries(results, baselineRun)
+    summaries(results, run).toSeq
+      .collect({
+        case (key @ (configuration, metric), current) if baseline.contains(key) && baseline(key).median > 0 =>
+          Comparison(configuration, metric, baseline(key), current)
+      })
+      .sortBy(comparison => (comparison.configuration, comparison.metric.name))
+  }
+
+  def main(args: Array[String]): Unit = args.toList match {
+    case "ingest" :: resultsDir :: store :: run :: Nil =>
+      val added = ingest(os.Path(resultsDir, os.pwd), os.Path(store, os.pwd), run)
+      println(s"Added $added results to $store as run '$run'")
+    case "summarize" :: store :: run :: Nil =>
+      summaries(readStore(os.Path(store, os.pwd)), run).toSeq
+        .sortBy({ case ((configuration, metric), _) => (configuration, metric.name) })
+        .foreach({ case ((configuration, metric), summary) =>
+          println(f"$configuration ${metric.name}: median ${summary.median}%.1f, variance ${summary.variance}%.1f (n=${summary.count})")
+        })
+    case "compare" :: store :: baselineRun :: run :: rest =>
+      val threshold = rest.headOption.map(_.toDouble).getOrElse(0.1)
+      val comparisons = compare(readStore(os.Path(store, os.pwd)), baselineRun, run)
+      val regressions = comparisons.filter(_.isRegression(threshold))
+      comparisons.foreach(comparison => {
+        val verdict = if (regressions.contains(comparison)) "REGRESSION" else "ok"
+        println(
+          f"${comparison.configuration} ${comparison.metric.name}: ${comparison.baseline.median}%.1f -> " +
+            f"${comparison.current.median}%.1f (${comparison.relativeChange * 100}%+.1f%%) $verdict"
+        )
+      })
+      println(s"${comparisons.size} comparisons, ${regressions.size} regressions (threshold ${threshold * 100}%)")
+      if (regressions.nonEmpty) {
+        System.exit(1)
+      }
+    case _ =>
+      System.err.println(
+        "Usage: ResultsDatabase ingest <results-dir> <store.csv> <run> | summarize <store.csv> <run> | " +
+          "compare <store.csv> <baseline-run> <run> [threshold]"
+      )
+      System.exit(2)
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.experiments
+
+/** Summary statistics of repeated measurements. */
+object SampleStatistics {
+
+  def median(samples: Seq[Double]): Double = {
+    require(samples.nonEmpty, "median of no samples")
+    val sorted = samples.sorted
+    val n = sorted.size
+    if (n % 2 == 1) sorted(n / 2) else (sorted(n / 2 - 1) + sorted(n / 2)) / 2
+  }
+
+  def mean(samples: Seq[Double]): Double = samples.sum / samples.size
+
+  /** The smallest sample such that at least `p` percent of the
+    * samples are at most as large (nearest rank).
+    */
+  def percentile(samples: Seq[Double], p: Double): Double = {
+    require(samples.nonEmpty, "percentile of no samples")
+    val sorted = samples.sorted
+    val rank = math.ceil(sorted.size * p / 100).toInt
+    sorted(math.max(rank, 1) - 1)
+  }
+
+  /** Sample variance, 0 for a single sample. */
+  def variance(samples: Seq[Double]): Double = {
+    val n = samples.size
+    if (n < 2) {
+      0.0
+    } else {
+      val m = mean(samples)
+      samples.map(sample => math.pow(sample - m, 2)).sum / (n - 1)
+    }
+  }
+
+  // two-sided 97.5% quantiles of Student's t distribution for 1 to 30 degrees of freedom
+  private val tQuantiles = IndexedSeq(
+    12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+    2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+    2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+  )
+
+  /** The 95% confidence interval of the mean of `samples`, assuming they are
+    * normally distributed. Collapses to the sample for a single sample.
+    */
+  def confidenceInterval95(samples: Seq[Double]): (Double, Double) = {
+    val n = samples.size
+    val m = mean(samples)
+    if (n < 2) {
+      (m, m)
+    } else {
+      val t = if (n - 1 <= tQuantiles.size) tQuantiles(n - 2) else 1.96
+      val halfWidth = t * math.sqrt(variance(samples) / n)
+      (m - halfWidth, m + halfWidth)
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.experiments
+
+import java.io.{BufferedWriter, Writer}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths}
+import scala.util.Random
+
+/** Generates synthetic JavaScript programs for stress testing the analysis.
+  *
+  * A program consists of `functions` top-level functions `fun0`, `fun1`, ...
+  * Each function
+  *   - allocates an object according to `allocation`,
+  *   - stores a function `fieldDepth` properties deep into it, reads it back
+  *     and calls it,
+  *   - calls `fanOut` further functions, each under a `nondet()` branch,
+  *   - returns a function captured `closureDepth` nested closures deep and
+  *     calls it.
+  *
+  * All callees are chosen with a seeded random generator, so a configuration
+  * always produces the same program. Programs are written function by
+  * function, so generating millions of lines takes constant memory.
+  */
+final class SyntheticProgramGenerator(config: SyntheticProgramGenerator.Config) {
+  import SyntheticProgramGenerator._
+
+  private val random = new Random(config.seed)
+
+  private var linesWritten = 0L
+
+  /** Writes the program to `out`, and returns the number of lines written. */
+  def write(out: Writer): Long = {
+    linesWritten = 0
+    line(out, 0, "function nondet() {")
+    line(out, 1, "return Math.random() > 0.5;")
+    line(out, 0, "}")
+    config.allocation match {
+      case Allocation.Shared =>
+        line(out, 0, "var pool = {};")
+      case Allocation.Constructor =>
+        line(out, 0, "function Box(value) {")
+        line(out, 1, "this.value = value;")
+        line(out, 0, "}")
+      case Allocation.Fresh =>
+    }
+    (0 until config.functions).foreach(function => writeFunction(out, function))
+    (0 until math.min(config.functions, config.entryCalls)).foreach(function => line(out, 0, s"fun$function(null);"))
+    out.flush()
+    linesWritten
+  }
+
+  private def line(out: Writer, indent: Int, text: String): Unit = {
+    var i = 0
+    while (i < indent) {
+      out.write("    ")
+      i += 1
+    }
+    out.write(text)
+    out.write('\n')
+    linesWritten += 1
+  }
+
+  private def randomFunction(): String = s"fun${random.nextInt(config.functions)}"
+
+  private def writeFunction(out: Writer, function: Int): Unit = {
+    val obj = s"obj$function"
+    line(out, 0, s"function fun$function(arg$function) {")
+    config.allocation match {
+      case Allocation.Fresh =>
+        line(out, 1, s"var $obj = {};")
+      case Allocation.Shared =>
+        // objects are allocated once and shared through a global pool, so their fields are written by many functions
+        val slot = s"pool.s${function % config.sharedPoolSize}"
+        line(out, 1, s"if (!$slot) {")
+        line(out, 2, s"$slot = {};")
+        line(out, 1, "}")
+        line(out, 1, s"var $obj = $slot;")
+      case Allocation.Constructor =>
+        line(out, 1, s"var $obj = new Box(arg$function);")
+    }
+    if (config.fieldDepth > 0) {
+      val path = (0 until config.fieldDepth).map(depth => s"f$depth")
+      (1 until config.fieldDepth).foreach(depth => line(out, 1, s"$obj.${path.take(depth).mkString(".")} = {};"))
+      line(out, 1, s"$obj.${path.mkString(".")} = ${randomFunction()};")
+      line(out, 1, s"var loaded$function = $obj.${path.mkString(".")};")
+      line(out, 1, s"loaded$function($obj);")
+    }
+    (0 until config.fanOut).foreach(_ => {
+      line(out, 1, "if (nondet()) {")
+      line(out, 2, s"${randomFunction()}(arg$function);")
+      line(out, 1, "}")
+    })
+    if (config.closureDepth > 0) {
+      line(out, 1, s"var captured$function = ${randomFunction()};")
+      (0 until config.closureDepth).foreach(depth =>
+        line(out, 1 + depth, s"function closure${function}_$depth() {")
+      )
+      line(out, 1 + config.closureDepth, s"return captured$function;")
+      (config.closureDepth - 1 to 0 by -1).foreach(depth => {
+        line(out, 1 + depth, "}")
+        if (depth > 0) {
+          line(out, 1 + depth, s"return closure${function}_$depth;")
+        }
+      })
+      line(out, 1, s"closure${function}_0()${"()" * (config.closureDepth - 1)}($obj);")
+    }
+    line(out, 1, s"return $obj;")
+    line(out, 0, "}")
+    line(out, 0, "")
+  }
+}
+
+object SyntheticProgramGenerator {
+
+  sealed trait Allocation
+  object Allocation {
+    /** Every function allocates its own object literal. */
+    case object Fresh extends Allocation
+    /** Functions share objects from a global pool of `sharedPoolSize` objects. */
+    case object Shared extends Allocation
+    /** Every function allocates an object through a constructor shared by all functions. */
+    case object Constructor extends Allocation
+
+    def parse(name: String): Allocation = name.toLowerCase match {
+      case "fresh"       => Fresh
+      case "shared"      => Shared
+      case "constructor" => Constructor
+      case _ => throw new IllegalArgumentException(s"Unknown allocation pattern '$name'")
+    }
+  }
+
+  final case class Config(
+      functions: Int = 1000,
+      fanOut: Int = 2,
+      closureDepth: Int = 1,
+      fieldDepth: Int = 2,
+      allocation: Allocation = Allocation.Fresh,
+      sharedPoolSize: Int = 16,
+      entryCalls: Int = 10,
+      seed: Long = 42
+  ) {
+    require(functions > 0, "a program needs at least one function")
+    require(fanOut >= 0 && closureDepth >= 0 && fieldDepth >= 0 && sharedPoolSize > 0 && entryCalls >= 0)
+
+    /** A file name identifying this configuration. */
+    def fileName: String =
+      s"synth.n$functions.fan$fanOut.cl$closureDepth.fd$fieldDepth.${allocation.toString.toLowerCase}.s$seed.js"
+  }
+
+  def generate(config: Config, file: Path): Long = {
+    val out: BufferedWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8)
+    try {
+      new SyntheticProgramGenerator(config).write(out)
+    } finally {
+      out.close()
+    }
+  }
+
+  /** Writes one program per function count in `--sizes` to `--out-dir`
+    * (`synthetic-benchmarks` by default), with all other parameters fixed. To
+    * run `CollectEvaluationData` on the resulting series of growing programs,
+    * pass it the same directory as its argument.
+    *
+    * Usage: SyntheticProgramGenerator [--out-dir dir] [--sizes 1000,10000]
+    * [--fan-out n] [--closure-depth n] [--field-depth n]
+    * [--allocation fresh|shared|constructor] [--entry-calls n] [--seed n]
+    */
+  def main(args: Array[String]): Unit = {
+    val options = args.grouped(2).collect({ case Array(key, value) => key -> value }).toMap
+    val outDir = Paths.get(options.getOrElse("--out-dir", "synthetic-benchmarks"))
+    val sizes = options.getOrElse("--sizes", "1000").split(",").map(_.trim.toInt)
+    val defaults = Config()
+    Files.createDirectories(outDir)
+    sizes.foreach(size => {
+      val config = Config(
+        functions = size,
+        fanOut = options.get("--fan-out").map(_.toInt).getOrElse(defaults.fanOut),
+        closureDepth = options.get("--closure-depth").map(_.toInt).getOrElse(defaults.closureDepth),
+        fieldDepth = options.get("--field-depth").map(_.toInt).getOrElse(defaults.fieldDepth),
+        allocation = options.get("--allocation").map(Allocation.parse).getOrElse(defaults.allocation),
+        entryCalls = options.get("--entry-calls").map(_.toInt).getOrElse(defaults.entryCalls),
+        seed = options.get("--seed").map(_.toLong).getOrElse(defaults.seed)
+      )
+      val file = outDir.resolve(config.fileName)
+      val lines = generate(config, file)
+      println(s"$file: $lines lines")
+    })
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.instrumentation;
+
+/**
+ * What a task run by the scheduler does, for attributing time and task counts in {@link Metrics}.
+ */
+public enum HandlerCategory {
+    /** Initial run of a newly created solver. */
+    SOLVER_START,
+    /** Resuming a solver that was cancelled earlier. */
+    SOLVER_RESUME,
+    /** A handler reacting to a newly found callee of a call site. */
+    CALLEE_FOUND,
+    /** A handler reacting to a newly found invocation of a function. */
+    INVOCATION_FOUND,
+    /** A handler reacting to a newly found allocation site of a value, e.g. for aliasing. */
+    ALIAS_FOUND,
+    /** A handler tracking the answers awaited by a client of the QueryManager. */
+    ANSWER_WATCHER,
+    /** Anything else. */
+    OTHER
+}
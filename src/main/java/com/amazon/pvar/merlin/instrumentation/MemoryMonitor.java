@@ -0,0 +1,134 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.instrumentation;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks heap usage while a computation runs.
+ * <p>
+ * The peak heap usage is the sum of the peak usages of all heap memory pools since {@link #start}. The JVM tracks
+ * these peaks itself, so short-lived peaks between two observations are not missed. Since pools can peak at different
+ * times, this is an upper bound of the actual peak.
+ * <p>
+ * The peak live heap is the largest heap usage observed right after a garbage collection, i.e. an estimate of the
+ * memory the computation retained at its largest. It is only known if a collection happened while monitoring.
+ */
+public final class MemoryMonitor implements AutoCloseable {
+
+    private final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+            .toList();
+    private final Set<String> heapPoolNames = heapPools.stream()
+            .map(MemoryPoolMXBean::getName)
+            .collect(Collectors.toSet());
+    private final AtomicLong peakLiveHeap = new AtomicLong(-1);
+    private final NotificationListener gcListener = this::onNotification;
+
+    private MemoryMonitor() {
+    }
+
+    /**
+     * Resets the peak usage of all heap pools and starts listening for garbage collections.
+     */
+    public static MemoryMonitor start() {
+        final var monitor = new MemoryMonitor();
+        monitor.heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(monitor.gcListener, null, null);
+            }
+        }
+        return monitor;
+    }
+
+    private void onNotification(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+        final var info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        final long liveHeap = info.getGcInfo().getMemoryUsageAfterGc().entrySet().stream()
+                .filter(pool -> heapPoolNames.contains(pool.getKey()))
+                .mapToLong(pool -> pool.getValue().getUsed())
+                .sum();
+        peakLiveHeap.accumulateAndGet(liveHeap, Math::max);
+    }
+
+    /**
+     * @return the peak heap usage in bytes since {@link #start}
+     */
+    public long peakHeapUsage() {
+        return heapPools.stream()
+                .map(MemoryPoolMXBean::getPeakUsage)
+                .mapToLong(MemoryUsage::getUsed)
+                .sum();
+    }
+
+    /**
+     * @return the largest heap usage in bytes after a garbage collection since {@link #start}, or -1 if there was none
+     */
+    public long peakLiveHeap() {
+        return peakLiveHeap.get();
+    }
+
+    @Override
+    public void close() {
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                try {
+                    emitter.removeNotificationListener(gcListener);
+                } catch (ListenerNotFoundException e) {
+                    // not registered with this collector
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by the given threads, or -1 if the JVM does not measure allocations. Threads
+     * that have terminated are not counted.
+     */
+    public static long allocatedBytes(Collection<Long> threadIds) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean)
+                || !threadMXBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        final long[] ids = threadIds.stream().mapToLong(Long::longValue).toArray();
+        long total = 0;
+        for (final long allocated : threadMXBean.getThreadAllocatedBytes(ids)) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+}
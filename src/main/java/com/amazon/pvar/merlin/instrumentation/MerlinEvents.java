@@ -0,0 +1,176 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.function.Supplier;
+
+/**
+ * Custom Java Flight Recorder events for the solver lifecycle, handler runs, call graph edges and fixpoint
+ * iterations, e.g. for a recording started with {@code -XX:StartFlightRecording}.
+ * <p>
+ * Event fields are only formatted once an event is known to be committed, so while no recording is active an event
+ * costs a (usually scalar-replaced) allocation and an enabled check. Handler runs and successor computations are
+ * frequent, so by default only runs taking at least 1 ms are recorded; the threshold can be lowered in the recording
+ * settings, e.g. {@code merlin.HandlerRun#threshold=0 ms}.
+ */
+public final class MerlinEvents {
+
+    private MerlinEvents() {
+    }
+
+    @Name("merlin.SolverCreated")
+    @Label("Solver Created")
+    @Category("Merlin")
+    @StackTrace(false)
+    public static final class SolverCreatedEvent extends Event {
+        @Label("Query")
+        public String query;
+    }
+
+    @Name("merlin.Solve")
+    @Label("Solve")
+    @Description("Initial run of a solver, from its first task until it has no more work to do on its own")
+    @Category("Merlin")
+    @StackTrace(false)
+    public static final class SolveEvent extends Event {
+        @Label("Query")
+        public String query;
+    }
+
+    @Name("merlin.ComputeSuccessor")
+    @Label("Compute Successor")
+    @Description("Applying the flow functions to one node and propagating the resulting states")
+    @Category("Merlin")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static final class ComputeSuccessorEvent extends Event {
+        @Label("Query")
+        public String query;
+
+        @Label("Node")
+        public String node;
+
+        @Label("Next States")
+        public int nextStates;
+    }
+
+    @Name("merlin.HandlerRun")
+    @Label("Handler Run")
+    @Category("Merlin")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static final class HandlerRunEvent extends Event {
+        @Label("Category")
+        public String category;
+
+        @Label("Tag")
+        public String tag;
+    }
+
+    @Name("merlin.CallGraphEdge")
+    @Label("Call Graph Edge Added")
+    @Category("Merlin")
+    @StackTrace(false)
+    public static final class CallGraphEdgeEvent extends Event {
+        @Label("Call Site")
+        public String callSite;
+
+        @Label("Target")
+        public String target;
+    }
+
+    @Name("merlin.FixpointIteration")
+    @Label("Fixpoint Iteration")
+    @Description("One round of QueryManager.solve: waiting for the scheduler, then handling unresolved calls")
+    @Category("Merlin")
+    @StackTrace(false)
+    public static final class FixpointIterationEvent extends Event {
+        @Label("Iteration")
+        public int iteration;
+
+        @Label("New Data Flows")
+        public boolean changed;
+    }
+
+    public static void solverCreated(Object query) {
+        final var event = new SolverCreatedEvent();
+        if (event.shouldCommit()) {
+            event.query = String.valueOf(query);
+            event.commit();
+        }
+    }
+
+    public static void callGraphEdgeAdded(Object callSite, Object target) {
+        final var event = new CallGraphEdgeEvent();
+        if (event.shouldCommit()) {
+            event.callSite = String.valueOf(callSite);
+            event.target = String.valueOf(target);
+            event.commit();
+        }
+    }
+
+    /**
+     * Runs the initial `solve` of the solver for `query`, recording it as a {@link SolveEvent}.
+     */
+    public static void solve(Object query, Runnable solve) {
+        final var event = new SolveEvent();
+        if (!event.isEnabled()) {
+            solve.run();
+            return;
+        }
+        event.begin();
+        try {
+            solve.run();
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.query = String.valueOf(query);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Runs a handler, recording it as a {@link HandlerRunEvent}. `tag` is only called if the event is committed.
+     */
+    public static void runHandler(HandlerCategory category, Supplier<Object> tag, Runnable handler) {
+        final var event = new HandlerRunEvent();
+        if (!event.isEnabled()) {
+            handler.run();
+            return;
+        }
+        event.begin();
+        try {
+            handler.run();
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.category = category.name();
+                event.tag = String.valueOf(tag.get());
+                event.commit();
+            }
+        }
+    }
+}
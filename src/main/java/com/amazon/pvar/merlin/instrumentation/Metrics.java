@@ -0,0 +1,210 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.instrumentation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Process-wide registry of scheduler task metrics, broken down by {@link HandlerCategory}.
+ * <p>
+ * For each category, this counts submitted, completed and rejected tasks, and records how long tasks waited in the
+ * queue and how long they ran. All counters are striped, so metrics are cheap enough to stay enabled; they can be
+ * switched off with {@link #setEnabled} nonetheless.
+ */
+public final class Metrics {
+
+    /**
+     * Metrics of a single handler category.
+     */
+    public static final class CategoryMetrics {
+        public final LongAdder submitted = new LongAdder();
+        public final LongAdder completed = new LongAdder();
+        public final LongAdder rejected = new LongAdder();
+        public final LatencyHistogram queueDelay = new LatencyHistogram();
+        public final LatencyHistogram runTime = new LatencyHistogram();
+        /** Only recorded while CPU time tracking is enabled. */
+        public final LongAdder cpuTimeNanos = new LongAdder();
+    }
+
+    /**
+     * A point-in-time copy of the metrics of a category.
+     */
+    public record CategorySnapshot(long submitted, long completed, long rejected, long runP50Nanos, long runP99Nanos,
+                                   long queuedP99Nanos, long cpuTimeNanos) {
+    }
+
+    private static volatile boolean enabled = true;
+
+    private static volatile boolean cpuTimeTracking = false;
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private static volatile CategoryMetrics[] categories = freshCategories();
+
+    private static final ThreadLocal<HandlerCategory> currentCategory = new ThreadLocal<>();
+
+    private Metrics() {
+    }
+
+    private static CategoryMetrics[] freshCategories() {
+        final var result = new CategoryMetrics[HandlerCategory.values().length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new CategoryMetrics();
+        }
+        return result;
+    }
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether to also record the CPU time of tasks per category. Reading the CPU time of a thread is a system call,
+     * so this is off by default.
+     */
+    public static void setCpuTimeTracking(boolean enable) {
+        cpuTimeTracking = enable;
+    }
+
+    public static CategoryMetrics of(HandlerCategory category) {
+        return categories[category.ordinal()];
+    }
+
+    /**
+     * @return the category of the task currently running on this thread, or null outside of scheduler tasks
+     */
+    public static HandlerCategory currentCategory() {
+        return currentCategory.get();
+    }
+
+    /**
+     * Records the submission of a task.
+     *
+     * @return the submission timestamp to pass to {@link #runTask}
+     */
+    public static long taskSubmitted(HandlerCategory category) {
+        if (!enabled) {
+            return 0;
+        }
+        of(category).submitted.increment();
+        return System.nanoTime();
+    }
+
+    public static void taskRejected(HandlerCategory category) {
+        if (enabled) {
+            of(category).rejected.increment();
+        }
+    }
+
+    /**
+     * Runs `task`, recording its queue delay and running time, and exposing its category through
+     * {@link #currentCategory} while it runs.
+     */
+    public static void runTask(HandlerCategory category, long submittedAt, Runnable task) {
+        final var outerCategory = currentCategory.get();
+        currentCategory.set(category);
+        if (!enabled || submittedAt == 0) {
+            try {
+                task.run();
+            } finally {
+                currentCategory.set(outerCategory);
+            }
+            return;
+        }
+        final var metrics = of(category);
+        final boolean trackCpuTime = cpuTimeTracking;
+        final long cpuStartedAt = trackCpuTime ? threadMXBean.getCurrentThreadCpuTime() : 0;
+        final long startedAt = System.nanoTime();
+        metrics.queueDelay.record(startedAt - submittedAt);
+        try {
+            task.run();
+        } finally {
+            metrics.runTime.record(System.nanoTime() - startedAt);
+            if (trackCpuTime) {
+                metrics.cpuTimeNanos.add(threadMXBean.getCurrentThreadCpuTime() - cpuStartedAt);
+            }
+            metrics.completed.increment();
+            currentCategory.set(outerCategory);
+        }
+    }
+
+    /**
+     * @return snapshots of the categories that had tasks
+     */
+    public static Map<HandlerCategory, CategorySnapshot> snapshot() {
+        final var result = new EnumMap<HandlerCategory, CategorySnapshot>(HandlerCategory.class);
+        for (final var category : HandlerCategory.values()) {
+            final var metrics = of(category);
+            final long submitted = metrics.submitted.sum();
+            if (submitted > 0) {
+                result.put(category, new CategorySnapshot(
+                        submitted,
+                        metrics.completed.sum(),
+                        metrics.rejected.sum(),
+                        metrics.runTime.percentileNanos(50),
+                        metrics.runTime.percentileNanos(99),
+                        metrics.queueDelay.percentileNanos(99),
+                        metrics.cpuTimeNanos.sum()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Discards all metrics recorded so far.
+     */
+    public static void reset() {
+        categories = freshCategories();
+    }
+
+    /**
+     * @return a one-line summary of the categories that had tasks, busiest first
+     */
+    public static String summary() {
+        return Arrays.stream(HandlerCategory.values())
+                .filter(category -> of(category).submitted.sum() > 0)
+                .sorted(Comparator.comparingLong((HandlerCategory category) -> of(category).submitted.sum()).reversed())
+                .map(category -> {
+                    final var metrics = of(category);
+                    return category + ": " + metrics.completed.sum() + "/" + metrics.submitted.sum() + " tasks" +
+                            ", run p50 <= " + formatNanos(metrics.runTime.percentileNanos(50)) +
+                            ", run p99 <= " + formatNanos(metrics.runTime.percentileNanos(99)) +
+                            ", queued p99 <= " + formatNanos(metrics.queueDelay.percentileNanos(99));
+                })
+                .collect(Collectors.joining("; "));
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + "ns";
+        } else if (nanos < 10_000_000) {
+            return nanos / 1_000 + "us";
+        } else {
+            return nanos / 1_000_000 + "ms";
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.instrumentation;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records a timeline per query: when its solver was created, when it reached its first state, which subqueries it
+ * spawned, which handlers ran on its behalf and when it became quiescent.
+ * <p>
+ * The timeline is written in the Chrome trace-event format (load it in chrome://tracing or https://ui.perfetto.dev),
+ * with one track per query. Subqueries are drawn as flow arrows between tracks, so critical paths through the query
+ * dependency graph can be followed visually.
+ * <p>
+ * Queries are identified by their `equals`, and labelled by their `toString`. Recording stops once `maxEvents`
+ * events were recorded, to bound the memory used by long runs.
+ */
+public final class QueryTracer implements TaskObserver {
+
+    public static final int DEFAULT_MAX_EVENTS = 2_000_000;
+
+    private enum Phase {
+        COMPLETE("X"), INSTANT("i"), FLOW_START("s"), FLOW_END("f");
+
+        private final String code;
+
+        Phase(String code) {
+            this.code = code;
+        }
+    }
+
+    private record Event(String name, HandlerCategory category, Phase phase, int track, long startNanos,
+                         long durationNanos, long flowId) {
+    }
+
+    private final long origin = System.nanoTime();
+    private final int maxEvents;
+    private final AtomicInteger recordedEvents = new AtomicInteger(0);
+    private final AtomicLong droppedEvents = new AtomicLong(0);
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger nextTrack = new AtomicInteger(0);
+    private final ConcurrentHashMap<Object, Integer> tracks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> trackNames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Long> createdAt = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Long> lastTaskEnd = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Set<Integer>> subqueries = new ConcurrentHashMap<>();
+    private final AtomicLong nextFlowId = new AtomicLong(0);
+
+    public QueryTracer() {
+        this(DEFAULT_MAX_EVENTS);
+    }
+
+    public QueryTracer(int maxEvents) {
+        this.maxEvents = maxEvents;
+    }
+
+    private long now() {
+        return System.nanoTime() - origin;
+    }
+
+    private int trackOf(Object query) {
+        return tracks.computeIfAbsent(query, q -> {
+            final int track = nextTrack.incrementAndGet();
+            trackNames.put(track, q.toString());
+            return track;
+        });
+    }
+
+    private void record(Event event) {
+        // Stops counting at the cap rather than incrementing past it, so the counter cannot overflow on long runs
+        if (recordedEvents.getAndUpdate(recorded -> recorded < maxEvents ? recorded + 1 : recorded) < maxEvents) {
+            events.add(event);
+        } else {
+            droppedEvents.incrementAndGet();
+        }
+    }
+
+    private void instant(Object query, String name) {
+        record(new Event(name, null, Phase.INSTANT, trackOf(query), now(), 0, 0));
+    }
+
+    public void solverCreated(Object query) {
+        final int track = trackOf(query);
+        final long time = now();
+        createdAt.putIfAbsent(track, time);
+        record(new Event("solver created", null, Phase.INSTANT, track, time, 0, 0));
+    }
+
+    public void firstStateReached(Object query) {
+        instant(query, "first state reached");
+    }
+
+    /**
+     * Records that `parent` needs the results of `subquery`. Only the first registration of a pair is recorded.
+     */
+    public void subqueryRegistered(Object parent, Object subquery) {
+        final int parentTrack = trackOf(parent);
+        final int subTrack = trackOf(subquery);
+        if (subqueries.computeIfAbsent(parentTrack, track -> ConcurrentHashMap.newKeySet()).add(subTrack)) {
+            final long flowId = nextFlowId.incrementAndGet();
+            final long time = now();
+            record(new Event("subquery", null, Phase.FLOW_START, parentTrack, time, 0, flowId));
+            record(new Event("subquery", null, Phase.FLOW_END, subTrack, time, 0, flowId));
+        }
+    }
+
+    /**
+     * Records that all queries needed to answer `query` have finished, as observed by a client of the analysis.
+     */
+    public void coneQuiescent(Object query) {
+        instant(query, "cone quiescent");
+    }
+
+    @Override
+    public void observe(Object owner, HandlerCategory category, Runnable task) {
+        final int track = trackOf(owner);
+        final long start = now();
+        try {
+            task.run();
+        } finally {
+            final long end = now();
+            lastTaskEnd.merge(track, end, Math::max);
+            record(new Event(category.name().toLowerCase(), category, Phase.COMPLETE, track, start, end - start, 0));
+        }
+    }
+
+    /**
+     * @return the number of events dropped because `maxEvents` was reached
+     */
+    public long droppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Writes the events recorded so far as Chrome trace-event JSON.
+     * <p>
+     * Besides the recorded events, each query gets a "quiescent" marker at the end of the last task run on its behalf,
+     * and each query that is not a subquery of another one gets a "dependency cone" span, lasting from the creation of
+     * its solver until the last task of any query it (transitively) depends on.
+     */
+    public void writeChromeTrace(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(out)) {
+            json.beginObject();
+            json.name("displayTimeUnit").value("ms");
+            json.name("otherData").beginObject()
+                    .name("droppedEvents").value(droppedEvents.get())
+                    .endObject();
+            json.name("traceEvents").beginArray();
+            for (final var entry : new HashMap<>(trackNames).entrySet()) {
+                json.beginObject()
+                        .name("name").value("thread_name")
+                        .name("ph").value("M")
+                        .name("pid").value(1)
+                        .name("tid").value(entry.getKey())
+                        .name("args").beginObject().name("name").value(entry.getValue()).endObject()
+                        .endObject();
+            }
+            for (final var event : events) {
+                writeEvent(json, event);
+            }
+            final var lastTaskEnds = new HashMap<>(lastTaskEnd);
+            for (final var entry : lastTaskEnds.entrySet()) {
+                writeEvent(json, new Event("quiescent", null, Phase.INSTANT, entry.getKey(), entry.getValue(), 0, 0));
+            }
+            for (final var span : dependencyConeSpans(lastTaskEnds)) {
+                writeEvent(json, span);
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    private Set<Event> dependencyConeSpans(Map<Integer, Long> lastTaskEnds) {
+        final var subqueryTracks = new HashSet<Integer>();
+        subqueries.values().forEach(subqueryTracks::addAll);
+        final var spans = new HashSet<Event>();
+        for (final var root : createdAt.entrySet()) {
+            if (subqueryTracks.contains(root.getKey())) {
+                continue;
+            }
+            long coneEnd = root.getValue();
+            final var visited = new HashSet<Integer>();
+            final var worklist = new ArrayDeque<Integer>();
+            visited.add(root.getKey());
+            worklist.add(root.getKey());
+            while (!worklist.isEmpty()) {
+                final int track = worklist.poll();
+                coneEnd = Math.max(coneEnd, lastTaskEnds.getOrDefault(track, 0L));
+                for (final int subquery : subqueries.getOrDefault(track, Set.of())) {
+                    if (visited.add(subquery)) {
+                        worklist.add(subquery);
+                    }
+                }
+            }
+            spans.add(new Event("dependency cone (" + visited.size() + " queries)", null, Phase.COMPLETE,
+                    root.getKey(), root.getValue(), coneEnd - root.getValue(), 0));
+        }
+        return spans;
+    }
+
+    private static void writeEvent(JsonWriter json, Event event) throws IOException {
+        json.beginObject()
+                .name("name").value(event.name())
+                .name("cat").value(event.category() == null ? "query" : event.category().name().toLowerCase())
+                .name("ph").value(event.phase().code)
+                .name("pid").value(1)
+                .name("tid").value(event.track())
+                .name("ts").value(event.startNanos() / 1000.0);
+        switch (event.phase()) {
+            case COMPLETE -> json.name("dur").value(event.durationNanos() / 1000.0);
+            case INSTANT -> json.name("s").value("t");
+            case FLOW_START -> json.name("id").value(event.flowId());
+            case FLOW_END -> json.name("id").value(event.flowId()).name("bp").value("e");
+        }
+        json.endObject();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.instrumentation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Serves a JSON status document at `http://localhost:port/status`, e.g. to monitor long runs with curl.
+ * <p>
+ * The server only binds to the loopback interface and answers from a single daemon thread, so it never competes with
+ * the analysis for more than one core.
+ */
+public final class StatusServer implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private StatusServer(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * @param port       the port to listen on, or 0 to pick a free one
+     * @param statusJson produces the status document for each request
+     */
+    public static StatusServer start(int port, Supplier<String> statusJson) throws IOException {
+        final var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/status", exchange -> respond(exchange, statusJson));
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            final var thread = new Thread(runnable, "merlin-status-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return new StatusServer(server);
+    }
+
+    private static void respond(HttpExchange exchange, Supplier<String> statusJson) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final byte[] body = statusJson.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.instrumentation;
+
+/**
+ * Hook around the tasks a {@link com.amazon.pvar.merlin.livecollections.Scheduler} runs on behalf of an owner,
+ * typically a query.
+ */
+@FunctionalInterface
+public interface TaskObserver {
+    /**
+     * Runs `task` on the current thread. Implementations must run `task` exactly once.
+     */
+    void observe(Object owner, HandlerCategory category, Runnable task);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.instrumentation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A worker thread factory for a scheduler's pool that keeps track of the CPU time, monitor blocking and allocations
+ * of all workers it created, including workers the pool has already retired.
+ * <p>
+ * Blocked and waited time are only measured if thread contention monitoring was enabled (see
+ * {@link #setContentionMonitoring}) when the tracker was created. It is a JVM-wide setting that slows down every
+ * contended monitor, so it is off by default.
+ */
+public final class WorkerThreadTracker implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+    /**
+     * Resource usage of all workers, summed.
+     *
+     * @param blockedTimeMillis time spent blocked entering a monitor, -1 if contention monitoring was off
+     * @param waitedTimeMillis  time spent waiting for a notification or parked, -1 if contention monitoring was off
+     * @param allocatedBytes    -1 if not supported by the JVM
+     */
+    public record WorkerUsage(int threads, long cpuTimeNanos, long blockedTimeMillis, long waitedTimeMillis,
+                              long allocatedBytes) {
+    }
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private final Set<Worker> liveWorkers = ConcurrentHashMap.newKeySet();
+    private final LongAdder createdWorkers = new LongAdder();
+    private final LongAdder retiredCpuTime = new LongAdder();
+    private final LongAdder retiredBlockedTime = new LongAdder();
+    private final LongAdder retiredWaitedTime = new LongAdder();
+    private final LongAdder retiredAllocatedBytes = new LongAdder();
+    private final boolean contentionMonitoring;
+
+    public WorkerThreadTracker() {
+        contentionMonitoring = threadMXBean.isThreadContentionMonitoringSupported()
+                && threadMXBean.isThreadContentionMonitoringEnabled();
+    }
+
+    /**
+     * Enables or disables thread contention monitoring for the whole JVM, if it is supported. Only trackers created
+     * while it is enabled report blocked and waited time.
+     */
+    public static void setContentionMonitoring(boolean enable) {
+        if (threadMXBean.isThreadContentionMonitoringSupported()) {
+            threadMXBean.setThreadContentionMonitoringEnabled(enable);
+        }
+    }
+
+    private final class Worker extends ForkJoinWorkerThread {
+        Worker(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            // the usage of a thread can no longer be queried once it has terminated. Moving it from the live workers
+            // to the retired sums happens under the tracker's lock, so `usage` counts every worker exactly once.
+            synchronized (WorkerThreadTracker.this) {
+                retiredCpuTime.add(Math.max(0, threadMXBean.getCurrentThreadCpuTime()));
+                final var info = threadMXBean.getThreadInfo(getId());
+                if (info != null) {
+                    retiredBlockedTime.add(Math.max(0, info.getBlockedTime()));
+                    retiredWaitedTime.add(Math.max(0, info.getWaitedTime()));
+                }
+                retiredAllocatedBytes.add(Math.max(0, MemoryMonitor.allocatedBytes(List.of(getId()))));
+                liveWorkers.remove(this);
+            }
+            super.onTermination(exception);
+        }
+    }
+
+    @Override
+    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        final var worker = new Worker(pool);
+        liveWorkers.add(worker);
+        createdWorkers.increment();
+        return worker;
+    }
+
+    /**
+     * @return the usage of all workers created so far, each counted from its creation. Usage of live workers is read
+     * without stopping them.
+     */
+    public synchronized WorkerUsage usage() {
+        final var workers = List.copyOf(liveWorkers);
+        long cpuTime = retiredCpuTime.sum();
+        long blockedTime = retiredBlockedTime.sum();
+        long waitedTime = retiredWaitedTime.sum();
+        for (final var worker : workers) {
+            cpuTime += Math.max(0, threadMXBean.getThreadCpuTime(worker.getId()));
+            final var info = threadMXBean.getThreadInfo(worker.getId());
+            if (info != null) {
+                blockedTime += Math.max(0, info.getBlockedTime());
+                waitedTime += Math.max(0, info.getWaitedTime());
+            }
+        }
+        final long liveAllocatedBytes = MemoryMonitor.allocatedBytes(workers.stream().map(Thread::getId).toList());
+        return new WorkerUsage(
+                createdWorkers.intValue(),
+                cpuTime,
+                contentionMonitoring ? blockedTime : -1,
+                contentionMonitoring ? waitedTime : -1,
+                liveAllocatedBytes < 0 ? -1 : liveAllocatedBytes + retiredAllocatedBytes.sum()
+        );
+    }
+}
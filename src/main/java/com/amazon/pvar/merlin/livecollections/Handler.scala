@@ -15,6 +15,8 @@
 
 package com.amazon.pvar.merlin.livecollections
 
+import com.amazon.pvar.merlin.instrumentation.HandlerCategory
+
 import java.util.function.Consumer
 
 /** Handlers for reacting to elements being added to LiveCollections. If the
@@ -24,19 +26,31 @@ import java.util.function.Consumer
 trait Handler[A] {
   def run(a: A): Unit
   def withRun[B](newRun: B => Unit): Handler[B]
+
+  /** The owner that runs of this handler are attributed to, if any. See
+    * `Scheduler.isQuiescent(owners)`.
+    */
+  def owner: Option[AnyRef] = None
+
+  /** What runs of this handler are attributed to in the metrics registry. */
+  def category: HandlerCategory = HandlerCategory.OTHER
 }
 
-/** Uses `tag` to distinguish handlers (and does not use `cont` in equals and
-  * hashCode computation).
+/** Uses `tag` to distinguish handlers (and does not use `cont`, `owner` or
+  * `category` in equals and hashCode computation).
   */
-final case class TaggedHandler[T, A](tag: T, cont: A => Unit)
-    extends Handler[A] {
+final case class TaggedHandler[T, A](
+    tag: T,
+    cont: A => Unit,
+    override val owner: Option[AnyRef] = None,
+    override val category: HandlerCategory = HandlerCategory.OTHER
+) extends Handler[A] {
   def run(a: A): Unit = cont(a)
 
   override def equals(obj: Any): Boolean = {
     obj match {
-      case TaggedHandler(tag2, _) => tag2 == tag
-      case _                      => false
+      case TaggedHandler(tag2, _, _, _) => tag2 == tag
+      case _                            => false
     }
   }
 
@@ -55,4 +69,15 @@ object TaggedHandler {
     */
   def create[T, A](tag: T, javaFunc: Consumer[A]): TaggedHandler[T, A] =
     TaggedHandler(tag, a => javaFunc.accept(a))
+
+  /** Like `create`, but attributes runs of the handler to `owner` and
+    * `category`.
+    */
+  def create[T, A](
+      tag: T,
+      owner: AnyRef,
+      category: HandlerCategory,
+      javaFunc: Consumer[A]
+  ): TaggedHandler[T, A] =
+    TaggedHandler(tag, a => javaFunc.accept(a), Some(owner), category)
 }
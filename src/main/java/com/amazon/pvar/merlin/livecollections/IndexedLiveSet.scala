@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.livecollections
+
+import com.amazon.pvar.merlin.solver.{DenseIndex, IntAdjacency}
+import org.roaringbitmap.RoaringBitmap
+
+import java.util.concurrent.ConcurrentHashMap
+
+/** Live sets whose elements are stored as a compressed bitset of ids from a
+  * shared `DenseIndex`, which is much more compact than a hash set when many
+  * sets draw from the same (large) universe of elements, such as points-to
+  * sets over allocation sites.
+  */
+object IndexedLiveSet {
+
+  private val emptyBitmap = new RoaringBitmap()
+
+  /** Creates indexed live sets over the elements of one `DenseIndex`. Sets
+    * from the same factory share the bitmap of equal singleton sets (the most
+    * common case for points-to sets), so the cache lives exactly as long as the
+    * factory and its index.
+    */
+  final class Factory[A](sched: Scheduler, index: DenseIndex[A]) {
+    private val singletons = new ConcurrentHashMap[Integer, RoaringBitmap]()
+
+    def create(): LiveSet[A] = new LiveSet(sched, new BitmapElemStore(index, singleton))
+
+    private def singleton(id: Int): RoaringBitmap =
+      singletons.computeIfAbsent(id, _ => RoaringBitmap.bitmapOf(id))
+  }
+
+  def factory[A](sched: Scheduler, index: DenseIndex[A]): Factory[A] = new Factory(sched, index)
+
+  /** A single indexed live set, not sharing bitmaps with other sets. */
+  def create[A](sched: Scheduler, index: DenseIndex[A]): LiveSet[A] =
+    new LiveSet(sched, new BitmapElemStore(index, RoaringBitmap.bitmapOf(_)))
+
+  /** A live set of the successors of `from` in `adjacency`, resolved through
+    * `index`. The set is a view of the row rather than a copy: adding an
+    * element adds an edge to `adjacency`, so each element is stored once, as
+    * an int. Edges of `from` must only be added through this set, so that its
+    * handlers see all of them.
+    */
+  def ofRow[A](sched: Scheduler, index: DenseIndex[A], adjacency: IntAdjacency, from: Int): LiveSet[A] =
+    new LiveSet(sched, new RowElemStore(index, adjacency, from))
+
+  private final class RowElemStore[A](index: DenseIndex[A], adjacency: IntAdjacency, from: Int)
+      extends ElemStore[A] {
+    override def contains(elem: A): Boolean = adjacency.contains(from, index.idOf(elem))
+
+    override def add(elem: A): Unit = adjacency.add(from, index.intern(elem))
+
+    override def foreach(func: A => Unit): Unit =
+      adjacency.forEachSuccessor(from, (id: Int) => func(index.get(id)))
+
+    override def size: Int = adjacency.successors(from).size()
+
+    override def toSet: Set[A] = {
+      val builder = Set.newBuilder[A]
+      foreach(builder += _)
+      builder.result()
+    }
+  }
+
+  private final class BitmapElemStore[A](index: DenseIndex[A], singleton: Int => RoaringBitmap)
+      extends ElemStore[A] {
+    // The bitmap of a singleton set may be shared with other sets, so it is
+    // copied before the set grows; from then on the set owns its bitmap and
+    // modifies it in place.
+    private var bits: RoaringBitmap = emptyBitmap
+    private var owned = false
+
+    override def contains(elem: A): Boolean = {
+      val id = index.idOf(elem)
+      id >= 0 && bits.contains(id)
+    }
+
+    override def add(elem: A): Unit = {
+      val id = index.intern(elem)
+      if (bits.isEmpty) {
+        bits = singleton(id)
+      } else {
+        if (!owned) {
+          bits = bits.clone()
+          owned = true
+        }
+        bits.add(id)
+      }
+    }
+
+    override def foreach(func: A => Unit): Unit =
+      bits.forEach((id: Int) => func(index.get(id)))
+
+    override def size: Int = bits.getCardinality
+
+    override def toSet: Set[A] = {
+      val builder = Set.newBuilder[A]
+      foreach(builder += _)
+      builder.result()
+    }
+  }
+}
@@ -15,6 +15,9 @@
 
 package com.amazon.pvar.merlin.livecollections
 
+import com.amazon.pvar.merlin.instrumentation.{HandlerCategory, MerlinEvents}
+
+import scala.annotation.tailrec
 import scala.collection.mutable
 import scala.jdk.CollectionConverters._
 
@@ -60,27 +63,41 @@ sealed trait LiveCollection[A] {
   * Each live set is associated with a `Scheduler` to allow waiting for all
   * computations related to this liveset to complete.
   */
-class LiveSet[A](sched: Scheduler) extends LiveCollection[A] {
+class LiveSet[A](sched: Scheduler, private[livecollections] val elems: ElemStore[A])
+    extends LiveCollection[A] {
   private val handlers: mutable.Set[Handler[A]] = mutable.Set.empty
-  private val elems: mutable.Set[A] = mutable.Set.empty
+
+  def this(sched: Scheduler) = this(sched, new HashElemStore[A])
 
   override def onAdd(handler: Handler[A]): Unit = synchronized {
     if (!handlers.contains(handler)) {
       handlers += handler
       elems.foreach(answer => {
-        sched.addThread(handler.run(answer))
+        schedule(handler, answer)
       })
     }
   }
 
-  def currentSize: Int = elems.synchronized { elems.size }
+  /** Stops invoking `handler` for elements added from now on. Handler runs
+    * that were already scheduled still happen.
+    */
+  def removeHandler(handler: Handler[A]): Unit = synchronized {
+    handlers -= handler
+  }
+
+  def currentSize: Int = synchronized { elems.size }
+
+  /** The elements added so far, without waiting for the scheduler to become
+    * idle.
+    */
+  def currentElems: Set[A] = synchronized { elems.toSet }
 
   /** Adds an element to the LiveSet and runs any handlers registered on it. */
   def add(elem: A): Boolean = synchronized {
     if (!elems.contains(elem)) {
-      elems += elem
+      elems.add(elem)
       handlers.foreach(handler => {
-        sched.addThread(handler.run(elem))
+        schedule(handler, elem)
       })
       true
     } else {
@@ -88,6 +105,25 @@ class LiveSet[A](sched: Scheduler) extends LiveCollection[A] {
     }
   }
 
+  private def schedule(handler: Handler[A], elem: A): Unit =
+    handler.owner match {
+      case Some(owner) => sched.addOwnedThread(owner, handler.category)(runHandler(handler, elem))
+      case None        => sched.addCategorizedThread(handler.category)(runHandler(handler, elem))
+    }
+
+  private def runHandler(handler: Handler[A], elem: A): Unit =
+    MerlinEvents.runHandler(handler.category, () => tagOf(handler), () => handler.run(elem))
+
+  /** What a handler run is reported as in flight recordings. Does not use `toString` of wrapped handlers, which
+    * would include the (possibly still growing) collection they are registered on.
+    */
+  @tailrec
+  private def tagOf(handler: Handler[_]): AnyRef = handler match {
+    case TaggedHandler(tag, _, _, _) => tag.asInstanceOf[AnyRef]
+    case WrappedHandler(wrapped, _)  => tagOf(wrapped)
+    case other                       => other.getClass.getName
+  }
+
   /** Block until all computations on the same scheduler have finished. */
   def waitUntilStable(): Unit = sched.waitUntilDone()
 
@@ -95,7 +131,7 @@ class LiveSet[A](sched: Scheduler) extends LiveCollection[A] {
     */
   override def toSet: Set[A] = {
     waitUntilStable()
-    elems.toSet
+    synchronized { elems.toSet }
   }
 
 }
@@ -105,6 +141,27 @@ object LiveSet {
   def create[A](sched: Scheduler): LiveSet[A] = new LiveSet(sched)
 }
 
+/** Storage for the elements of a `LiveSet`. Only accessed while holding the
+  * live set's lock.
+  */
+private[livecollections] trait ElemStore[A] {
+  def contains(elem: A): Boolean
+  def add(elem: A): Unit
+  def foreach(func: A => Unit): Unit
+  def size: Int
+  def toSet: Set[A]
+}
+
+private[livecollections] final class HashElemStore[A] extends ElemStore[A] {
+  private val elems: mutable.Set[A] = mutable.Set.empty
+
+  override def contains(elem: A): Boolean = elems.contains(elem)
+  override def add(elem: A): Unit = elems += elem
+  override def foreach(func: A => Unit): Unit = elems.foreach(func)
+  override def size: Int = elems.size
+  override def toSet: Set[A] = elems.toSet
+}
+
 private case class MappedLiveSet[A, B](liveSet: LiveCollection[A], func: A => B)
     extends LiveCollection[B] {
   override def onAdd(handler: Handler[B]): Unit =
@@ -161,4 +218,8 @@ private case class WrappedHandler[A](
 
   override def withRun[B](newRun: B => Unit): Handler[B] =
     this.copy(wrappedHandler = wrappedHandler.withRun(newRun))
+
+  override def owner: Option[AnyRef] = wrappedHandler.owner
+
+  override def category: HandlerCategory = wrappedHandler.category
 }
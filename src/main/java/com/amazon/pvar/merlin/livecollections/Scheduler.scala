@@ -15,12 +15,12 @@
 
 package com.amazon.pvar.merlin.livecollections
 
-import com.amazon.pvar.merlin.experiments.CollectEvaluationData
-import com.amazon.pvar.merlin.solver.HandlerStats
+import com.amazon.pvar.merlin.instrumentation.{HandlerCategory, Metrics, TaskObserver}
 
 import java.util
 import java.util.{Arrays, Optional}
-import java.util.concurrent.{ForkJoinPool, RejectedExecutionException, TimeUnit}
+import java.util.concurrent.{ConcurrentHashMap, ForkJoinPool, RejectedExecutionException, TimeUnit}
+import java.util.concurrent.atomic.AtomicLong
 import scala.jdk.CollectionConverters._
 
 /** Mostly a wrapper around a thread pool to keep track of all threads involved
@@ -34,67 +34,130 @@ final class Scheduler(
     while (!pool.awaitQuiescence(1, TimeUnit.HOURS)) {}
   }
 
-  def addThread(func: => Unit): Unit = {
-    if (CollectEvaluationData.debugFlag) {
-      // Collect statistics to identify where most of the threads are spawned
-      val stackTrace = Thread.currentThread.getStackTrace
-      val direction = stackTrace.collectFirst({
-        case event if event.toString.contains("BackwardFlowFunctions") => "bwd"
-        case event if event.toString.contains("ForwardFlowFunctions") => "fwd"
-        case event if event.toString.contains("ForwardMerlinSolver") => "fwd"
-        case event if event.toString.contains("BackwardMerlinSolver") => "bwd"
-      }).getOrElse("unk")
-      val handlerTag = stackTrace.collectFirst({
-        case event if event.toString.contains("BackwardFlowFunctions.handleflowToFunctionEntry") =>
-          "backwardEntry"
-        case event if event.toString.contains("resolveFunctionCall") =>
-          s"resolveFunctionCall:$direction"
-        case event if event.toString.contains("handleFlowToReturn") =>
-          s"flowToReturn:$direction"
-        case event if event.toString.contains("CallGraph.java:135") =>
-          s"invocationFound:$direction"
-        case event if event.toString.contains("CallGraph.java:136") =>
-          s"calleeFound:$direction"
-        case event if event.toString.contains("findInvocationsOfFunction") =>
-          s"findInvocationSolverStart:$direction"
-        case event if event.toString.contains("solveQueries") =>
-          "initial"
-        case event if event.toString.contains("registerCalleeHandler") =>
-          s"calleeFound:$direction"
-        case event if event.toString.contains("registerInvocationFoundHandler") =>
-          s"invocationFound:$direction"
-        case event if event.toString.contains("withAllocationSitesOf") =>
-          s"aliasFound:$direction"
-        case event if event.toString.contains("addPointsToFact") =>
-          s"aliasFound:$direction"
-      })
-      handlerTag.foreach(HandlerStats.logHandlerRegistration)
-      if (handlerTag.isEmpty) {
-        HandlerStats.logHandlerRegistration("other")
+  /** Whether all tasks submitted so far have finished. Does not block. */
+  def isQuiescent: Boolean = pool.isQuiescent
+
+  /** Task counts of each owner with pending tasks. An owner's entry is removed once its last task finishes, so an
+    * owner's counts are only ever changed under the map's lock for that owner.
+    */
+  private val ownedTasks = new ConcurrentHashMap[AnyRef, Scheduler.OwnedTasks]()
+
+  /** The number of owners with pending tasks. */
+  private[livecollections] def ownerCount: Int = ownedTasks.size()
+
+  @volatile private var taskObserver: TaskObserver = null
+
+  /** Runs all tasks submitted through `addOwnedThread` from now on through
+    * `observer`, or stops observing them if `observer` is null.
+    */
+  def setTaskObserver(observer: TaskObserver): Unit = {
+    taskObserver = observer
+  }
+
+  /** Whether all tasks attributed to any of `owners` have finished. Does not
+    * block. Tasks dropped by `cancel` before they started are never reported
+    * as finished, so check `isCancelled` first.
+    *
+    * The started task counts are read before and after checking the pending
+    * counts: since a task can only spawn new tasks while it is still pending,
+    * any task started in between (e.g. by another owner finishing) is noticed.
+    * An owner whose entry was removed or created in between has started tasks
+    * as well, so the entries are compared last.
+    */
+  def isQuiescent(owners: Iterable[AnyRef]): Boolean = {
+    val entries = owners.map(owner => owner -> ownedTasks.get(owner)).toList
+    val counts = entries.flatMap { case (_, entry) => Option(entry) }
+    val startedBefore = counts.map(_.started.get()).sum
+    counts.forall(_.pending.get() == 0) &&
+    counts.map(_.started.get()).sum == startedBefore &&
+    entries.forall { case (owner, entry) => ownedTasks.get(owner) eq entry }
+  }
+
+  /** Like `addCategorizedThread`, but also attributes the task to `owner`. */
+  def addOwnedThread(owner: AnyRef, category: HandlerCategory = HandlerCategory.OTHER)(func: => Unit): Unit = {
+    ownedTasks.compute(
+      owner,
+      (_, existing) => {
+        val counts = if (existing == null) new Scheduler.OwnedTasks else existing
+        counts.started.incrementAndGet()
+        counts.pending.incrementAndGet()
+        counts
+      }
+    )
+    val observer = taskObserver
+    val submitted = submit(category)({
+      try {
+        if (observer == null) {
+          func
+        } else {
+          observer.observe(owner, category, () => func)
+        }
+      } finally {
+        finishOwnedTask(owner)
       }
+    })
+    if (!submitted) {
+      finishOwnedTask(owner)
     }
+  }
+
+  private def finishOwnedTask(owner: AnyRef): Unit =
+    ownedTasks.computeIfPresent(owner, (_, counts) => if (counts.pending.decrementAndGet() == 0) null else counts)
+
+  def addThread(func: => Unit): Unit = addCategorizedThread(HandlerCategory.OTHER)(func)
+
+  /** Runs `func` on the pool, recording it under `category` in `Metrics`. */
+  def addCategorizedThread(category: HandlerCategory)(func: => Unit): Unit = {
+    submit(category)(func)
+  }
+
+  /** @return false iff the pool rejected the task because it was cancelled */
+  private def submit(category: HandlerCategory)(func: => Unit): Boolean = {
+    val submittedAt = Metrics.taskSubmitted(category)
     try {
-      pool.execute(() => func)
+      pool.execute(() => Metrics.runTask(category, submittedAt, () => func))
+      true
     } catch {
       case rej: RejectedExecutionException => // timeout reached
+        Metrics.taskRejected(category)
+        false
     }
   }
 
   def status(): String = {
-    s"queued tasks: ${pool.getQueuedTaskCount}; active: ${pool.getActiveThreadCount}"
+    s"queued tasks: $queuedTaskCount; active: $activeThreadCount"
   }
 
+  /** An estimate of the tasks submitted but not started yet. */
+  def queuedTaskCount: Long = pool.getQueuedTaskCount + pool.getQueuedSubmissionCount
+
+  def activeThreadCount: Int = pool.getActiveThreadCount
+
   def cancel(): Unit = {
     pool.shutdownNow()
   }
 
+  /** Whether `cancel` has been called. */
+  def isCancelled: Boolean = pool.isShutdown
+
 }
 
 object Scheduler {
+  private final class OwnedTasks {
+    val started = new AtomicLong(0)
+    val pending = new AtomicLong(0)
+  }
+
   val threadCount = Runtime.getRuntime.availableProcessors()
 //  val threadCount = 1
   // Java-friendly constructors (since Java does not support default parameters)
   def create(): Scheduler = new Scheduler(new ForkJoinPool(threadCount))
 
   def create(pool: ForkJoinPool) = new Scheduler(pool)
+
+  /** A scheduler whose pool creates its workers through `factory`, e.g. to
+    * track their resource usage.
+    */
+  def create(threadCount: Int, factory: ForkJoinPool.ForkJoinWorkerThreadFactory): Scheduler =
+    new Scheduler(new ForkJoinPool(threadCount, factory, null, false))
 }
@@ -16,6 +16,7 @@
 package com.amazon.pvar.merlin.solver;
 
 import com.amazon.pvar.merlin.DebugUtils;
+import com.amazon.pvar.merlin.instrumentation.HandlerCategory;
 import com.amazon.pvar.merlin.ir.ConstantAllocation;
 import com.amazon.pvar.merlin.ir.FunctionAllocation;
 import com.amazon.pvar.merlin.ir.NodeState;
@@ -48,7 +49,7 @@ public class BackwardMerlinSolver extends MerlinSolver {
 
     public BackwardMerlinSolver(QueryManager queryManager, Node<NodeState, Value> initialQuery) {
         super(queryManager, initialQuery);
-        DebugUtils.debug("Creating backwards solver for query: " + initialQuery);
+        DebugUtils.debug(() -> "Creating backwards solver for query: " + initialQuery);
         registerPointsToUpdateListener(initialQuery);
     }
 
@@ -158,17 +159,14 @@ public class BackwardMerlinSolver extends MerlinSolver {
             // past the unbalanced pop because the value flows past the entry point of the
             // current function
             if (targetVal.equals(BackwardMerlinSolver.this.initialQuery.fact())) {
-                DebugUtils.debug("Following unbalanced pop flow for " + BackwardMerlinSolver.this.initialQuery.fact());
+                DebugUtils.debug(() -> "Following unbalanced pop flow for " + BackwardMerlinSolver.this.initialQuery.fact());
                 final var func = transition.getLabel().getNode().getBlock().getFunction();
                 final var flowFunctions = makeFlowFunctions(curr);
-                final var callSitesAndQuery = flowFunctions.findInvocationsOfFunctionWithQuery(func);
-                final var callSites = callSitesAndQuery.getFirst();
-                final var callSiteQuery = callSitesAndQuery.getSecond();
-                queryManager.registerQueryDependency(initialQueryWithDirection(), callSiteQuery);
+                final var callSites = flowFunctions.findInvocationsOfFunction(func);
                 final var queryID = getQueryID(curr, true, true);
                 registerInvocationFoundHandler(curr, valueINode, flowFunctions, callSites, queryID);
             } else {
-                DebugUtils.debug("Unbalanced pop with target " + targetVal + " doesn't match initialQuery: "
+                DebugUtils.debug(() -> "Unbalanced pop with target " + targetVal + " doesn't match initialQuery: "
                         + BackwardMerlinSolver.this.initialQuery);
             }
         };
@@ -187,7 +185,7 @@ public class BackwardMerlinSolver extends MerlinSolver {
     }
 
     private void registerInvocationFoundHandler(Node<NodeState, Value> curr, INode<Value> valueINode, AbstractFlowFunctions flowFunctions, LiveCollection<CallNode> callSites, QueryID queryID) {
-        flowFunctions.continueWithSubqueryResult(callSites, queryID, callNode -> {
+        flowFunctions.continueWithSubqueryResult(callSites, queryID, HandlerCategory.INVOCATION_FOUND, callNode -> {
             Node<NodeState, Value> normalizedCallPop = new Node<>(
                     new NodeState(callNode),
                     valueINode.fact());
@@ -19,23 +19,34 @@ import com.amazon.pvar.merlin.experiments.Location;
 import com.amazon.pvar.merlin.experiments.SerializableCallGraph;
 import com.amazon.pvar.merlin.experiments.SerializableCallGraphEdge;
 import com.amazon.pvar.merlin.experiments.Span;
+import com.amazon.pvar.merlin.instrumentation.MerlinEvents;
+import com.amazon.pvar.merlin.livecollections.IndexedLiveSet;
 import com.amazon.pvar.merlin.livecollections.LiveSet;
 import com.amazon.pvar.merlin.livecollections.Scheduler;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
 import com.google.gson.*;
 import dk.brics.tajs.flowgraph.Function;
 import dk.brics.tajs.flowgraph.SourceLocation;
 import dk.brics.tajs.flowgraph.jsnodes.CallNode;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * Merlin's call graph representation.
  * <p>
- * The implementation includes an iterable edge set, as well as a callsite -> function multimap and a
- * function -> callsite multimap to support fast bidirectional lookup.
+ * Call sites and functions are interned as dense ints (see {@link DenseIndex}), and edges are stored as int rows in
+ * both directions (see {@link IntAdjacency}), which costs a few bytes per edge and supports fast
+ * bidirectional lookup. The live sets of callees and invocations are views of these rows rather than copies, and
+ * edge objects are only materialized when iterating.
+ * <p>
+ * All structures are concurrent, so solver threads discovering edges do not serialize on a single lock. An edge
+ * becomes visible in the callee direction slightly before it appears in the caller direction; readers that need a
+ * consistent view should wait for the scheduler to become quiescent (as all reporting at the end of the analysis
+ * does).
  * <p>
  * Note: This class is purely for reporting the resulting call graph at the end of the analysis.
  * To obtain callers or call sites during analysis, use getLiveKnownFunctionInvocations in PointsToGraph
@@ -107,18 +118,53 @@ public class CallGraph implements Iterable<CallGraph.Edge> {
     }
 
     private final Scheduler scheduler;
-    private final Set<Edge> edgeSet = new HashSet<>();
-    private final Multimap<CallNode, Function> calleeBackingMultimap = HashMultimap.create();
-    private final Multimap<Function, CallNode> callerBackingMultimap = HashMultimap.create();
+    private final DenseIndex<CallNode> callSiteIds = new DenseIndex<>();
+    private final DenseIndex<Function> functionIds = new DenseIndex<>();
+    private final IntAdjacency calleeIds = new IntAdjacency();
+    private final IntAdjacency callerIds = new IntAdjacency();
+    private final EdgeLog edgeLog = new EdgeLog();
+    // Only guards the interplay between publishing new edges and registering subscriptions, so that every edge is
+    // delivered to every subscription exactly once. Adding edges takes the (non-exclusive) read lock, and appends to
+    // the edge log while holding it, so that a snapshot taken under the write lock contains every earlier edge.
+    private final StampedLock subscriptionLock = new StampedLock();
 
     public CallGraph(Scheduler scheduler) {
         this.scheduler = scheduler;
-        invocationsMap = LiveMap.create(scheduler);
-        calleeMap = LiveMap.create(scheduler);
+        invocationsMap = LiveMap.createKeyed(function ->
+                IndexedLiveSet.ofRow(scheduler, callSiteIds, callerIds, functionIds.intern(function)));
+        calleeMap = LiveMap.createKeyed(callSite ->
+                IndexedLiveSet.ofRow(scheduler, functionIds, calleeIds, callSiteIds.intern(callSite)));
     }
 
     private final LiveMap<CallNode, Function> calleeMap;
     private final LiveMap<Function, CallNode> invocationsMap;
+    private final List<EdgeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Streams the edges of this call graph to `sink` as they are discovered, starting with the edges that are already
+     * present. Edges are passed to `sink` in batches of at most `maxBatchSize` edges, in no particular order.
+     * <p>
+     * At most `capacity` edges are buffered for the subscriber; once the buffer is full, the analysis waits for the
+     * subscriber to catch up. Close the returned subscription to stop receiving edges.
+     */
+    public EdgeSubscription subscribe(Consumer<List<Edge>> sink, int capacity, int maxBatchSize) {
+        final var subscription = new EdgeSubscription(this, sink, capacity, maxBatchSize);
+        subscription.start();
+        final Snapshot existingEdges;
+        final long stamp = subscriptionLock.writeLock();
+        try {
+            existingEdges = snapshot();
+            subscriptions.add(subscription);
+        } finally {
+            subscriptionLock.unlockWrite(stamp);
+        }
+        existingEdges.forEach(subscription::publish);
+        return subscription;
+    }
+
+    void unsubscribe(EdgeSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
     /**
      * Adds a new edge to the call graph, updating all internal data structures if the edge is not already present
      *
@@ -126,20 +172,34 @@ public class CallGraph implements Iterable<CallGraph.Edge> {
      * @return true if the edge was added successfully, false if the edge was already present in the call graph or
      * adding the edge failed for any other reason.
      */
-    public synchronized boolean addEdge(Edge newEdge) {
-        boolean added = edgeSet.add(newEdge);
+    public boolean addEdge(Edge newEdge) {
+        final int callSite = callSiteIds.intern(newEdge.getCallSite());
+        final int callTarget = functionIds.intern(newEdge.getCallTarget());
+        final boolean added;
+        final List<EdgeSubscription> subscribers;
+        final long stamp = subscriptionLock.readLock();
+        try {
+            // adds to `calleeIds`, see the constructor
+            added = calleeMap.get(newEdge.getCallSite()).add(newEdge.getCallTarget());
+            if (added) {
+                edgeLog.append(callSite, callTarget);
+            }
+            subscribers = added && !subscriptions.isEmpty() ? List.copyOf(subscriptions) : List.of();
+        } finally {
+            subscriptionLock.unlockRead(stamp);
+        }
         if (added) {
-            calleeBackingMultimap.put(newEdge.getCallSite(), newEdge.getCallTarget());
-            callerBackingMultimap.put(newEdge.getCallTarget(), newEdge.getCallSite());
-            if (invocationsMap.get(newEdge.getCallTarget()).add(newEdge.getCallSite())) {
-//                System.err.println("New edge resulted in handler calls: " + newEdge);
+            MerlinEvents.callGraphEdgeAdded(newEdge.getCallSite(), newEdge.getCallTarget());
+            invocationsMap.get(newEdge.getCallTarget()).add(newEdge.getCallSite());
+            // published outside of the lock, since a full subscription buffer blocks the caller
+            for (final var subscription : subscribers) {
+                subscription.publish(newEdge);
             }
-            calleeMap.get(newEdge.getCallSite()).add(newEdge.getCallTarget());
         }
         return added;
     }
 
-    public synchronized boolean addEdge(CallNode callsite, Function target) {
+    public boolean addEdge(CallNode callsite, Function target) {
         Edge edge = new Edge(callsite, target);
         return addEdge(edge);
     }
@@ -147,42 +207,37 @@ public class CallGraph implements Iterable<CallGraph.Edge> {
     /**
      * @return the number of edges in the call graph
      */
-    public synchronized int size() {
-        return edgeSet.size();
+    public int size() {
+        return calleeIds.edgeCount();
     }
 
     /**
      * @param edge
      * @return true if the specified edge is present in the call graph, false otherwise
      */
-    public synchronized boolean contains(Edge edge) {
-        return edgeSet.contains(edge);
+    public boolean contains(Edge edge) {
+        return calleeIds.contains(callSiteIds.idOf(edge.getCallSite()), functionIds.idOf(edge.getCallTarget()));
     }
 
     /**
-     * @return an iterator over the set of edges in the call graph
+     * @return an iterator over the set of edges in the call graph, as of the time of the call
      */
     @Override
-    public synchronized Iterator<Edge> iterator() {
-        return new Iterator<>() {
-
-            private final Iterator<Edge> delegate = edgeSet.iterator();
-
-            @Override
-            public boolean hasNext() {
-                return delegate.hasNext();
-            }
+    public Iterator<Edge> iterator() {
+        return snapshot().iterator();
+    }
 
-            @Override
-            public Edge next() {
-                return delegate.next();
-            }
-        };
+    /**
+     * Returns an immutable view of the edges discovered so far. Taking a snapshot does not copy any edges, and the
+     * snapshot is unaffected by edges added afterwards, so it can be read while solvers keep adding edges.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(edgeLog.publishedLength());
     }
 
     @Override
-    public synchronized String toString() {
-        return edgeSet.stream()
+    public String toString() {
+        return snapshot().stream()
                 .map(e -> e.toString() + "\n")
                 .collect(Collectors.joining())
                 .strip();
@@ -202,39 +257,173 @@ public class CallGraph implements Iterable<CallGraph.Edge> {
     }
 
     public SerializableCallGraph toSerializableCallGraph() {
-        final var serializedEdges = edgeSet
+        final var serializedEdges = snapshot()
             .stream()
             .map(Edge::toSerializable)
             .collect(Collectors.toSet());
         return new SerializableCallGraph(serializedEdges);
     }
 
+    /**
+     * @return the functions currently known to be called at `callNode`, as an unmodifiable view that does not change
+     * when further callees are found.
+     */
     public Set<Function> callees(CallNode callNode) {
-        final var entry = calleeBackingMultimap.get(callNode);
-        if (entry == null) {
-            return new HashSet<>();
-        } else {
-            return new HashSet<>(entry);
-        }
+        return new IdSetView<>(calleeIds, callSiteIds.idOf(callNode), functionIds);
     }
 
+    /**
+     * @return the call sites currently known to call `function`. See `callees`.
+     */
+    public Set<CallNode> callers(Function function) {
+        return new IdSetView<>(callerIds, functionIds.idOf(function), callSiteIds);
+    }
+
+    /**
+     * @return the edges in the call graph as of the time of the call, see `snapshot`
+     */
     public Set<Edge> edgeSet() {
-        return edgeSet;
+        return snapshot();
     }
 
-    public synchronized  LiveSet<CallNode> getInvocationsOf(Function func) {
+    public LiveSet<CallNode> getInvocationsOf(Function func) {
         return invocationsMap.get(func);
     }
 
-    public synchronized LiveSet<Function> getCalleesOf(CallNode callNode) {
+    public LiveSet<Function> getCalleesOf(CallNode callNode) {
         return calleeMap.get(callNode);
     }
 
-    public synchronized String status() {
+    public String status() {
 //        final var invocationHandlers = invocationsMap.values();
 //        final var invocationHandlerSum = invocationHandlers.stream().map(ls -> ls.currentSize() * ls.currentHandlerCount())
 //                .reduce(0, (a, b) -> a + b);
 //        return invocationHandlerSum.toString();
-        return String.valueOf(edgeSet.size());
+        return String.valueOf(size());
+    }
+
+    /**
+     * An immutable set of the edges that were discovered when the snapshot was taken, backed by a prefix of the
+     * append-only edge log.
+     */
+    public final class Snapshot extends AbstractSet<Edge> {
+
+        private final int length;
+        private volatile Set<Long> packedEdges = null;
+
+        private Snapshot(int length) {
+            this.length = length;
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        /**
+         * Calls `action` for every edge in the snapshot without creating Edge objects.
+         */
+        public void forEachEdge(BiConsumer<CallNode, Function> action) {
+            for (int slot = 0; slot < length; slot++) {
+                action.accept(callSiteIds.get(edgeLog.source(slot)), functionIds.get(edgeLog.target(slot)));
+            }
+        }
+
+        @Override
+        public Iterator<Edge> iterator() {
+            return new Iterator<>() {
+                private int slot = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return slot < length;
+                }
+
+                @Override
+                public Edge next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final int current = slot++;
+                    return new Edge(callSiteIds.get(edgeLog.source(current)), functionIds.get(edgeLog.target(current)));
+                }
+            };
+        }
+
+        /**
+         * The first lookup builds a hash set of the snapshot's edges; use `CallGraph.contains` for one-off lookups.
+         */
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Edge edge)) {
+                return false;
+            }
+            final int callSite = callSiteIds.idOf(edge.getCallSite());
+            final int callTarget = functionIds.idOf(edge.getCallTarget());
+            return callSite >= 0 && callTarget >= 0 && packedEdges().contains(EdgeLog.pack(callSite, callTarget));
+        }
+
+        private Set<Long> packedEdges() {
+            var result = packedEdges;
+            if (result == null) {
+                result = new HashSet<>(length);
+                for (int slot = 0; slot < length; slot++) {
+                    result.add(edgeLog.packed(slot));
+                }
+                packedEdges = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Set view of the prefix of a row of ids that was present when the view was created, resolving ids back to objects
+     * on access. Neither creating the view nor iterating it copies the row.
+     */
+    private static final class IdSetView<T> extends AbstractSet<T> {
+
+        private final IntAdjacency adjacency;
+        private final int from;
+        private final IntAdjacency.Successors ids;
+        private final DenseIndex<T> index;
+
+        private IdSetView(IntAdjacency adjacency, int from, DenseIndex<T> index) {
+            this.adjacency = adjacency;
+            this.from = from;
+            this.ids = adjacency.successors(from);
+            this.index = index;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<>() {
+                private int position = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return position < ids.size();
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return index.get(ids.get(position++));
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ids.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            // successors added after the view was created come later in the row
+            final int position = adjacency.positionOf(from, index.idOf(o));
+            return position >= 0 && position < ids.size();
+        }
     }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An unbounded array of references indexed by dense non-negative ints, growing in fixed-size chunks so that
+ * existing entries are never copied. Reads and compare-and-set updates of individual entries are lock-free;
+ * only allocating a new chunk takes a lock.
+ */
+final class ChunkedArray<E> {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    @SuppressWarnings("unchecked")
+    private volatile AtomicReferenceArray<E>[] chunks = new AtomicReferenceArray[0];
+
+    /**
+     * @return the entry at `index`, or null if none was set
+     */
+    E get(int index) {
+        final var chunk = chunkFor(index, false);
+        return chunk == null ? null : chunk.get(index & (CHUNK_SIZE - 1));
+    }
+
+    void set(int index, E value) {
+        chunkFor(index, true).set(index & (CHUNK_SIZE - 1), value);
+    }
+
+    boolean compareAndSet(int index, E expected, E value) {
+        return chunkFor(index, true).compareAndSet(index & (CHUNK_SIZE - 1), expected, value);
+    }
+
+    private AtomicReferenceArray<E> chunkFor(int index, boolean create) {
+        final int chunkIndex = index >>> CHUNK_BITS;
+        final var current = chunks;
+        if (chunkIndex < current.length && current[chunkIndex] != null) {
+            return current[chunkIndex];
+        }
+        return create ? allocateChunk(chunkIndex) : null;
+    }
+
+    private synchronized AtomicReferenceArray<E> allocateChunk(int chunkIndex) {
+        var current = chunks;
+        if (chunkIndex < current.length && current[chunkIndex] != null) {
+            return current[chunkIndex];
+        }
+        // the directory is copied rather than updated in place, so unsynchronized readers never see a torn update
+        current = Arrays.copyOf(current, Math.max(chunkIndex + 1, current.length));
+        current[chunkIndex] = new AtomicReferenceArray<>(CHUNK_SIZE);
+        chunks = current;
+        return current[chunkIndex];
+    }
+}
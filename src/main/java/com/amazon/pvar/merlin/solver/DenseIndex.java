@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interns objects as dense ints 0, 1, 2, ... in order of first appearance, so that they can be used as indices into
+ * primitive arrays. Ids are stable for the lifetime of the index, and interning the same object concurrently from
+ * several threads yields the same id.
+ */
+public final class DenseIndex<T> {
+
+    private final ConcurrentHashMap<T, Integer> ids = new ConcurrentHashMap<>();
+    private final ChunkedArray<T> elements = new ChunkedArray<>();
+    private final AtomicInteger nextId = new AtomicInteger(0);
+
+    /**
+     * @return the id of `element`, assigning a fresh one if it has not been interned yet
+     */
+    public int intern(T element) {
+        return ids.computeIfAbsent(element, key -> {
+            final int id = nextId.getAndIncrement();
+            elements.set(id, key);
+            return id;
+        });
+    }
+
+    /**
+     * @return the id of `element`, or -1 if it has not been interned
+     */
+    public int idOf(Object element) {
+        final var id = ids.get(element);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the element with the given id. Only valid for ids returned by this index.
+     */
+    public T get(int id) {
+        return elements.get(id);
+    }
+
+    /**
+     * @return an upper bound on the ids assigned so far. Ids below it may still be in the process of being assigned,
+     * in which case `get` returns null for them.
+     */
+    public int size() {
+        return nextId.get();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+/**
+ * How much of the query dependency graph a QueryManager records.
+ * <p>
+ * The dependency graph is needed to attribute errors to the queries they impact (`errorsImpactingQuery`), to cancel
+ * only the subqueries that no other query needs, and to detect when the queries behind an asynchronous answer are
+ * done. Throughput runs that need none of these can turn tracking off.
+ */
+public enum DependencyTracking {
+    /**
+     * No dependencies are recorded. Errors are only reported for the query that raised them, deadlines do not cancel
+     * solvers, and asynchronous answers complete once the whole scheduler is idle.
+     */
+    OFF,
+    /**
+     * Only the dependency cones of a deterministic sample of root queries (queries started directly rather than as
+     * subqueries) are recorded, so errors impacting the sampled roots can still be attributed. Cancellation and
+     * asynchronous answers behave as with OFF, since the graph is incomplete.
+     */
+    SAMPLED,
+    /**
+     * All dependencies are recorded.
+     */
+    FULL;
+
+    /**
+     * Parses a tracking mode case-insensitively, e.g. from a command line option.
+     */
+    public static DependencyTracking parse(String mode) {
+        return valueOf(mode.trim().toUpperCase(java.util.Locale.ROOT));
+    }
+}
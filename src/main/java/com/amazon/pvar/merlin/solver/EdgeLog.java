@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Append-only log of (source id, target id) pairs, stored packed into longs in fixed-size chunks.
+ * <p>
+ * Appending reserves a slot and then fills it, so concurrent appends never wait on each other. Readers only look at
+ * the published prefix of the log, i.e. the longest prefix in which every slot has been filled. Since entries are
+ * never modified after being written, any prefix length is an immutable snapshot of the log.
+ */
+final class EdgeLog {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+    private final AtomicInteger reserved = new AtomicInteger(0);
+    private final AtomicInteger published = new AtomicInteger(0);
+
+    void append(int source, int target) {
+        final int slot = reserved.getAndIncrement();
+        chunkFor(slot).set(slot & (CHUNK_SIZE - 1), pack(source, target));
+    }
+
+    /**
+     * @return the length of the longest prefix of the log in which all entries have been written
+     */
+    int publishedLength() {
+        int length = published.get();
+        final int limit = reserved.get();
+        while (length < limit && read(length) != 0) {
+            length++;
+        }
+        return published.accumulateAndGet(length, Math::max);
+    }
+
+    /**
+     * @return the source id of the entry at `slot`, which must lie within the published prefix
+     */
+    int source(int slot) {
+        return (int) (read(slot) >>> 32) - 1;
+    }
+
+    /**
+     * @return the target id of the entry at `slot`, which must lie within the published prefix
+     */
+    int target(int slot) {
+        return (int) read(slot);
+    }
+
+    /**
+     * @return the packed representation of the entry at `slot`, see `pack`
+     */
+    long packed(int slot) {
+        return read(slot);
+    }
+
+    /**
+     * Packs an entry into a long that is never 0, so that 0 can mark unwritten slots.
+     */
+    static long pack(int source, int target) {
+        return ((long) (source + 1) << 32) | (target & 0xffffffffL);
+    }
+
+    private long read(int slot) {
+        final int chunkIndex = slot >>> CHUNK_BITS;
+        final var current = chunks;
+        if (chunkIndex >= current.length || current[chunkIndex] == null) {
+            return 0;
+        }
+        return current[chunkIndex].get(slot & (CHUNK_SIZE - 1));
+    }
+
+    private AtomicLongArray chunkFor(int slot) {
+        final int chunkIndex = slot >>> CHUNK_BITS;
+        final var current = chunks;
+        if (chunkIndex < current.length && current[chunkIndex] != null) {
+            return current[chunkIndex];
+        }
+        return allocateChunk(chunkIndex);
+    }
+
+    private synchronized AtomicLongArray allocateChunk(int chunkIndex) {
+        var current = chunks;
+        if (chunkIndex < current.length && current[chunkIndex] != null) {
+            return current[chunkIndex];
+        }
+        current = Arrays.copyOf(current, Math.max(chunkIndex + 1, current.length));
+        current[chunkIndex] = new AtomicLongArray(CHUNK_SIZE);
+        chunks = current;
+        return current[chunkIndex];
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A subscription to the edges of a {@link CallGraph}, obtained through {@link CallGraph#subscribe}.
+ * <p>
+ * Edges are buffered in a bounded queue and handed to the sink in batches on a dedicated delivery thread, so a slow
+ * sink never runs on a solver thread. Once the buffer is full, threads discovering new edges block until the sink
+ * catches up. The sink must therefore not wait for the analysis itself to make progress.
+ */
+public final class EdgeSubscription implements AutoCloseable {
+
+    private final CallGraph callGraph;
+    private final BlockingQueue<CallGraph.Edge> buffer;
+    private final int maxBatchSize;
+    private final Consumer<List<CallGraph.Edge>> sink;
+    private final Thread deliveryThread;
+    private volatile boolean closed = false;
+
+    EdgeSubscription(CallGraph callGraph, Consumer<List<CallGraph.Edge>> sink, int capacity, int maxBatchSize) {
+        if (capacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("capacity and batch size must be positive");
+        }
+        this.callGraph = callGraph;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.sink = sink;
+        this.deliveryThread = new Thread(this::deliver, "merlin-edge-subscription");
+        this.deliveryThread.setDaemon(true);
+    }
+
+    void start() {
+        deliveryThread.start();
+    }
+
+    /**
+     * Enqueues `edge` for delivery, blocking while the buffer is full. When called from a worker of the scheduler's
+     * pool, the pool is told about the blocking so it can compensate with another worker.
+     */
+    void publish(CallGraph.Edge edge) {
+        if (closed || buffer.offer(edge)) {
+            return;
+        }
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                private boolean enqueued = false;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    while (!closed && !enqueued) {
+                        enqueued = buffer.offer(edge, 10, TimeUnit.MILLISECONDS);
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return closed || enqueued || (enqueued = buffer.offer(edge));
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deliver() {
+        final var batch = new ArrayList<CallGraph.Edge>(maxBatchSize);
+        try {
+            while (!closed) {
+                final var first = buffer.poll(10, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, maxBatchSize - 1);
+                try {
+                    sink.accept(List.copyOf(batch));
+                } catch (RuntimeException e) {
+                    // keep delivering, otherwise threads publishing to a full buffer would wait forever
+                    System.err.println("Edge subscriber threw " + e);
+                    e.printStackTrace();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of edges discovered but not yet handed to the sink
+     */
+    public int pending() {
+        return buffer.size();
+    }
+
+    /**
+     * Stops delivery. Edges still buffered are dropped, and threads blocked on a full buffer are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        callGraph.unsubscribe(this);
+        deliveryThread.interrupt();
+    }
+}
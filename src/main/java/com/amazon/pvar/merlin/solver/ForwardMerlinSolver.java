@@ -16,6 +16,7 @@
 package com.amazon.pvar.merlin.solver;
 
 import com.amazon.pvar.merlin.DebugUtils;
+import com.amazon.pvar.merlin.instrumentation.HandlerCategory;
 import com.amazon.pvar.merlin.ir.Allocation;
 import com.amazon.pvar.merlin.ir.NodeState;
 import com.amazon.pvar.merlin.ir.Property;
@@ -35,7 +36,7 @@ public class ForwardMerlinSolver extends MerlinSolver {
 
     public ForwardMerlinSolver(QueryManager queryManager, Node<NodeState, Value> initialQuery) {
         super(queryManager, initialQuery);
-        DebugUtils.debug("Creating forwards solver for " + initialQuery);
+        DebugUtils.debug(() -> "Creating forwards solver for " + initialQuery);
         if (initialQuery.fact() instanceof Allocation) {
             registerPointsToUpdateListener(initialQuery);
         }
@@ -89,12 +90,9 @@ public class ForwardMerlinSolver extends MerlinSolver {
                         if (shouldContinue) {
                             final var targetFunc = transition.getLabel().getNode().getBlock().getFunction();
                             final var flowFunctions = makeFlowFunctions(curr);
-                            final var callSitesAndQuery = flowFunctions.findInvocationsOfFunctionWithQuery(targetFunc);
-                            final var callSites = callSitesAndQuery.getFirst();
-                            final var callSitesQuery = callSitesAndQuery.getSecond();
-                            queryManager.registerQueryDependency(initialQueryWithDirection(), callSitesQuery);
+                            final var callSites = flowFunctions.findInvocationsOfFunction(targetFunc);
                             final var queryID = getQueryID(curr, true, true);
-                            flowFunctions.continueWithSubqueryResult(callSites, queryID, callNode -> {
+                            flowFunctions.continueWithSubqueryResult(callSites, queryID, HandlerCategory.INVOCATION_FOUND, callNode -> {
                                 Node<NodeState, Value> normalizedCallPop = new Node<>(
                                         new NodeState(callNode),
                                         valueINode.fact()
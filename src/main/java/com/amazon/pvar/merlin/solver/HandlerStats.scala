@@ -15,27 +15,11 @@
 
 package com.amazon.pvar.merlin.solver
 
-import java.util.concurrent.atomic.AtomicLong
-import scala.collection.mutable
+import com.amazon.pvar.merlin.instrumentation.Metrics
 
-// Various statistics to aid debugging
+// Various statistics to aid debugging, backed by the metrics registry
 object HandlerStats {
-  var handlerRegistrationMap: mutable.Map[String, Long] = mutable.Map.empty
+  def status: String = Metrics.summary()
 
-  def logHandlerRegistration(tag: String): Unit = handlerRegistrationMap.synchronized {
-    handlerRegistrationMap.get(tag) match {
-      case Some(value) =>
-        handlerRegistrationMap(tag) = value + 1
-      case None => handlerRegistrationMap(tag) = 1
-    }
-  }
-
-  def status: String = {
-    val registrationMapStatus = handlerRegistrationMap.toList.sortBy(_._2).reverse
-    registrationMapStatus.toString
-  }
-
-  def reset(): Unit = {
-    handlerRegistrationMap = mutable.Map.empty
-  }
+  def reset(): Unit = Metrics.reset()
 }
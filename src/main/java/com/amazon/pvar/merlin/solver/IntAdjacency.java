@@ -0,0 +1,232 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * A directed graph over dense int ids (see {@link DenseIndex}), storing the successors of each node as an int row in
+ * insertion order.
+ * <p>
+ * Rows grow in place: a successor is appended under the row's lock, and the row's length is published after the new
+ * entry is written, so readers see a consistent prefix of the row without locking. Duplicate checks scan small rows
+ * and use a hash index of positions for larger ones, so insertion stays cheap even for nodes with many successors,
+ * like functions with many call sites.
+ */
+public final class IntAdjacency {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final ChunkedArray<Row> rows = new ChunkedArray<>();
+    private final AtomicInteger edgeCount = new AtomicInteger(0);
+
+    /**
+     * @return true if the edge was not present before
+     */
+    public boolean add(int from, int to) {
+        var row = rows.get(from);
+        if (row == null) {
+            final var newRow = new Row();
+            row = rows.compareAndSet(from, null, newRow) ? newRow : rows.get(from);
+        }
+        if (row.add(to)) {
+            edgeCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean contains(int from, int to) {
+        if (from < 0 || to < 0) {
+            return false;
+        }
+        final var row = rows.get(from);
+        return row != null && row.contains(to);
+    }
+
+    /**
+     * @return a copy of the successors of `from`, in insertion order
+     */
+    public int[] row(int from) {
+        final var row = from < 0 ? null : rows.get(from);
+        return row == null ? EMPTY : row.toArray();
+    }
+
+    /**
+     * @return the successors `from` has now, as a view sharing the row's storage. Successors added afterwards are not
+     * part of the view.
+     */
+    public Successors successors(int from) {
+        final var row = from < 0 ? null : rows.get(from);
+        return row == null ? Successors.NONE : row.successors();
+    }
+
+    /**
+     * @return the position of `to` among the successors of `from` in insertion order, or -1 if it is not one
+     */
+    public int positionOf(int from, int to) {
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        final var row = rows.get(from);
+        return row == null ? -1 : row.position(to);
+    }
+
+    /**
+     * Calls `action` for each successor `from` had when the call started, in insertion order, without copying the row.
+     */
+    public void forEachSuccessor(int from, IntConsumer action) {
+        final var row = from < 0 ? null : rows.get(from);
+        if (row != null) {
+            row.forEach(action);
+        }
+    }
+
+    public int edgeCount() {
+        return edgeCount.get();
+    }
+
+    /**
+     * The first `size()` successors of a node. Entries of a row are never changed once written, and a row's storage is
+     * only replaced by larger copies, so a view stays valid without copying while the row keeps growing.
+     */
+    public static final class Successors {
+
+        private static final Successors NONE = new Successors(EMPTY, 0);
+
+        private final int[] elements;
+        private final int size;
+
+        private Successors(int[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int get(int position) {
+            if (position >= size) {
+                throw new IndexOutOfBoundsException(position);
+            }
+            return elements[position];
+        }
+    }
+
+    private static final class Row {
+
+        // rows with more successors than this keep a hash index for duplicate checks
+        private static final int INDEX_THRESHOLD = 8;
+
+        // `elements` is only replaced by larger copies, and always before `size` is increased past the old capacity
+        private volatile int[] elements = new int[2];
+        private volatile int size = 0;
+        // open addressing table of (position + 1), keyed by the element at that position; 0 marks a free slot. Only
+        // accessed while holding the lock.
+        private int[] index = null;
+
+        synchronized boolean add(int to) {
+            if (positionOf(to) >= 0) {
+                return false;
+            }
+            final int length = size;
+            var current = elements;
+            if (length == current.length) {
+                current = Arrays.copyOf(current, length * 2);
+                elements = current;
+            }
+            current[length] = to;
+            size = length + 1;
+            if (index == null ? length + 1 > INDEX_THRESHOLD : (length + 1) * 2 > index.length) {
+                rebuildIndex();
+            } else if (index != null) {
+                insertIntoIndex(length);
+            }
+            return true;
+        }
+
+        synchronized boolean contains(int to) {
+            return positionOf(to) >= 0;
+        }
+
+        synchronized int position(int to) {
+            return positionOf(to);
+        }
+
+        Successors successors() {
+            // `size` is read first, since `elements` is replaced before `size` grows past its capacity
+            final int length = size;
+            return new Successors(elements, length);
+        }
+
+        int[] toArray() {
+            final int length = size;
+            return Arrays.copyOf(elements, length);
+        }
+
+        void forEach(IntConsumer action) {
+            final int length = size;
+            final var current = elements;
+            for (int position = 0; position < length; position++) {
+                action.accept(current[position]);
+            }
+        }
+
+        private int positionOf(int to) {
+            final var current = elements;
+            if (index == null) {
+                for (int position = 0; position < size; position++) {
+                    if (current[position] == to) {
+                        return position;
+                    }
+                }
+                return -1;
+            }
+            final int mask = index.length - 1;
+            for (int slot = hash(to) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+                if (current[index[slot] - 1] == to) {
+                    return index[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        private void rebuildIndex() {
+            // keeps the table at most half full
+            index = new int[Integer.highestOneBit(size) * 4];
+            for (int position = 0; position < size; position++) {
+                insertIntoIndex(position);
+            }
+        }
+
+        private void insertIntoIndex(int position) {
+            final int mask = index.length - 1;
+            int slot = hash(elements[position]) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = position + 1;
+        }
+
+        private static int hash(int id) {
+            final int mixed = id * 0x9e3779b9;
+            return mixed ^ (mixed >>> 16);
+        }
+    }
+}
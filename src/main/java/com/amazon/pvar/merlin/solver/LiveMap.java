@@ -19,33 +19,61 @@ import com.amazon.pvar.merlin.livecollections.LiveSet;
 import com.amazon.pvar.merlin.livecollections.Scheduler;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+/**
+ * A map from keys to LiveSets, creating an empty LiveSet on first access to a key.
+ * <p>
+ * Lookups of existing keys are lock-free; creating the LiveSet for a new key only locks the affected bin of the
+ * backing map, so each key gets exactly one LiveSet.
+ */
 public class LiveMap<K, V> {
 
-    private final Scheduler scheduler;
+    private final Function<K, LiveSet<V>> newLiveSet;
 
-    protected LiveMap(Scheduler scheduler) {
-        this.scheduler = scheduler;
+    protected LiveMap(Function<K, LiveSet<V>> newLiveSet) {
+        this.newLiveSet = newLiveSet;
     }
 
-    private final Map<K, LiveSet<V>> backingMap = new HashMap<>();
+    private final ConcurrentHashMap<K, LiveSet<V>> backingMap = new ConcurrentHashMap<>();
 
     public static <K,V> LiveMap<K, V> create(Scheduler scheduler) {
-        return new LiveMap<>(scheduler);
+        return new LiveMap<>(key -> LiveSet.create(scheduler));
+    }
+
+    /**
+     * Creates a live map whose values are created by `newLiveSet`, e.g. to use IndexedLiveSets.
+     */
+    public static <K,V> LiveMap<K, V> create(Supplier<LiveSet<V>> newLiveSet) {
+        return new LiveMap<>(key -> newLiveSet.get());
+    }
+
+    /**
+     * Creates a live map whose value for a key is created by `newLiveSet` from the key, e.g. to back each LiveSet with
+     * storage owned by the key.
+     */
+    public static <K,V> LiveMap<K, V> createKeyed(Function<K, LiveSet<V>> newLiveSet) {
+        return new LiveMap<>(newLiveSet);
     }
 
-    public synchronized void put(K k, V v) {
+    public void put(K k, V v) {
         this.get(k).add(v);
     }
 
-    public synchronized LiveSet<V> get(K k) {
-        return backingMap.computeIfAbsent(k, key -> LiveSet.create(scheduler));
+    public LiveSet<V> get(K k) {
+        // computeIfAbsent locks the bin even if the key is present, so check for existing entries first
+        final var existing = backingMap.get(k);
+        return existing != null ? existing : backingMap.computeIfAbsent(k, newLiveSet);
     }
 
-    public synchronized Collection<LiveSet<V>> values() {
-        return backingMap.values();
+    /**
+     * @return a weakly consistent view of the LiveSets created so far
+     */
+    public Collection<LiveSet<V>> values() {
+        return Collections.unmodifiableCollection(backingMap.values());
     }
 
 }
@@ -16,6 +16,7 @@
 package com.amazon.pvar.merlin.solver;
 
 import com.amazon.pvar.merlin.DebugUtils;
+import com.amazon.pvar.merlin.instrumentation.MerlinEvents;
 import com.amazon.pvar.merlin.ir.FlowgraphUtils;
 import com.amazon.pvar.merlin.ir.NodeState;
 import com.amazon.pvar.merlin.ir.Property;
@@ -43,6 +44,8 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
 public abstract class MerlinSolver extends SyncPDSSolver<NodeState, Value, Property, Weight.NoWeight> {
@@ -52,7 +55,27 @@ public abstract class MerlinSolver extends SyncPDSSolver<NodeState, Value, Prope
     /**
      * Unresolved calls for which we added artificial data flows already.
      * */
-    protected final Set<Pair<CallNode, Value>> handledUnresolvedCalls = new HashSet<>();
+    protected final Set<Pair<CallNode, Value>> handledUnresolvedCalls = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Reached states at (non-internal) call nodes that have not been checked for missing callees yet. States are
+     * enqueued by a listener as they are reached, so that each round of unresolved call handling only needs to look
+     * at the states discovered since the previous round instead of all reached states.
+     * */
+    private final Queue<Node<NodeState, Value>> callStatesAwaitingResolution = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Set once no query depends on this solver anymore. A cancelled solver does not compute successors or
+     * propagate new states; this work is parked in `parkedWork` instead, so that the solver can be resumed
+     * without losing results if a query needs it again later.
+     * <p>
+     * The flag is read and written without holding the solver's lock, since `QueryManager` cancels and resumes
+     * solvers while holding its cancellation lock, which solver threads take while holding the solver's lock.
+     * */
+    private volatile boolean cancelled = false;
+    private final Queue<Runnable> parkedWork = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean firstStateReached = false;
 
     /**
      * The SyncPDSSolver class requires WeightFunctions in the case that the analysis includes a weight domain.
@@ -84,6 +107,16 @@ public abstract class MerlinSolver extends SyncPDSSolver<NodeState, Value, Prope
         );
         this.queryManager = queryManager;
         this.initialQuery = initialQuery;
+        MerlinEvents.solverCreated(initialQueryWithDirection());
+        registerListener(reachedState -> {
+            if (!firstStateReached) {
+                firstStateReached = true;
+                queryManager.getTracer().ifPresent(tracer -> tracer.firstStateReached(initialQueryWithDirection()));
+            }
+            if (reachedState.stmt().getNode() instanceof CallNode callNode && !FlowgraphUtils.isTAJSInternal(callNode)) {
+                callStatesAwaitingResolution.add(reachedState);
+            }
+        });
     }
 
     public PointsToGraph getPointsToGraph() {
@@ -113,17 +146,22 @@ public abstract class MerlinSolver extends SyncPDSSolver<NodeState, Value, Prope
 
     @Override
     public synchronized void computeSuccessor(Node<NodeState, Value> node) {
+        if (parkIfCancelled(() -> computeSuccessor(node))) {
+            return;
+        }
         if (Objects.isNull(node.stmt().getNode())) {
             System.err.println("Warning: no predecessor statement found. " +
                     "The analysis may have reached the beginning of the program without finding an allocation site");
             return;
         }
+        final var event = new MerlinEvents.ComputeSuccessorEvent();
+        event.begin();
         final var flowFunctions = makeFlowFunctions(node);
         for (final var nextNode : flowFunctions.nextNodes(node.stmt().getNode())) {
             if (nextNode instanceof CallNode callNode) {
                 this.registerListener(updatedNode -> {
                     if (updatedNode.stmt().getNode().equals(callNode)) {
-                        DebugUtils.debug("Listener called about update for " + callNode);
+                        DebugUtils.debug(() -> "Listener called about update for " + callNode);
                         computeSuccessor(updatedNode);
                     }
                 });
@@ -131,6 +169,13 @@ public abstract class MerlinSolver extends SyncPDSSolver<NodeState, Value, Prope
         }
         final var nextStates = flowFunctions.computeNextStates();
         nextStates.forEach(nextState -> propagate(node, nextState));
+        event.end();
+        if (event.shouldCommit()) {
+            event.query = initialQueryWithDirection().toString();
+            event.node = node.stmt().getNode().toString();
+            event.nextStates = nextStates.size();
+            event.commit();
+        }
     }
 
     @Override
@@ -200,6 +245,9 @@ public abstract class MerlinSolver extends SyncPDSSolver<NodeState, Value, Prope
 
     @Override
     public synchronized final void propagate(Node<NodeState, Value> curr, State s) {
+        if (parkIfCancelled(() -> propagate(curr, s))) {
+            return;
+        }
         super.propagate(curr, s);
     }
 
@@ -344,30 +392,100 @@ public abstract class MerlinSolver extends SyncPDSSolver<NodeState, Value, Prope
     /**
      * Add data flows for unresolved function calls to provide "less unsound" results
      * for unresolved methods.
+     * <p>
+     * Only call states reached since the previous invocation are examined. Since the callees of a call node can only
+     * grow, a call state that was resolved (or treated as unresolved) once never needs to be looked at again.
+     * <p>
+     * Each invocation takes the call states it examines off the queue, so concurrent invocations would each see only
+     * part of the pending states. `QueryManager` therefore runs these rounds one at a time, see
+     * `QueryManager.solve`.
      *
-     * @return Returns true iff any new data flow was added */
+     * @return Returns true iff any new data flow was added, or new call states were reached while resolving calls */
     public final boolean addDataFlowsForUnresolvedFunctionCalls() {
-        var changed = false;
+        if (cancelled) {
+            return false;
+        }
         queryManager.scheduler().waitUntilDone();
-        for (final var state : this.getReachedStates()) {
-            if (state.stmt().getNode() instanceof CallNode callNode && !FlowgraphUtils.isTAJSInternal(callNode)) {
-                final var callees = AbstractFlowFunctions.resolveFunctionCall(callNode, queryManager).toJavaSet();
-                final var theCall = callNode;
-                final var callAndQuery = Pair.make(callNode, state.fact());
-                if (callees.isEmpty() && !handledUnresolvedCalls.contains(callAndQuery)) {
-                    AbstractFlowFunctions.logUnsoundness(callNode, "Treating unresolved function call as side-effect free");
-                    // Add data flow for unresolved function call
-                    final var flowFunctions = makeFlowFunctions(new Node<>(
-                            new NodeState(callNode),
-                            state.fact()
-                    ));
-                    flowFunctions.handleUnresolvedCall();
-                    handledUnresolvedCalls.add(callAndQuery);
-                    changed = true;
-                }
+        final var pendingStates = new ArrayList<Node<NodeState, Value>>();
+        for (var state = callStatesAwaitingResolution.poll(); state != null; state = callStatesAwaitingResolution.poll()) {
+            pendingStates.add(state);
+        }
+        if (pendingStates.isEmpty()) {
+            return false;
+        }
+        // Start resolving all new call states first and wait for quiescence once, rather than blocking on every call
+        for (final var state : pendingStates) {
+            AbstractFlowFunctions.resolveFunctionCallWithQueries((CallNode) state.stmt().getNode(), queryManager,
+                    initialQueryWithDirection());
+        }
+        queryManager.scheduler().waitUntilDone();
+        var changed = false;
+        for (final var state : pendingStates) {
+            final var callNode = (CallNode) state.stmt().getNode();
+            final var callees = queryManager.getCallGraph().getCalleesOf(callNode);
+            final var callAndQuery = Pair.make(callNode, state.fact());
+            if (callees.currentSize() == 0 && handledUnresolvedCalls.add(callAndQuery)) {
+                AbstractFlowFunctions.logUnsoundness(callNode, "Treating unresolved function call as side-effect free");
+                // Add data flow for unresolved function call
+                final var flowFunctions = makeFlowFunctions(new Node<>(
+                        new NodeState(callNode),
+                        state.fact()
+                ));
+                flowFunctions.handleUnresolvedCall();
+                changed = true;
             }
         }
-        return changed;
+        return changed || !callStatesAwaitingResolution.isEmpty();
+    }
+
+    /**
+     * @return true iff call states were reached that the next round of unresolved call handling has to look at
+     */
+    public boolean hasCallStatesAwaitingResolution() {
+        return !callStatesAwaitingResolution.isEmpty();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Undo `cancel`. Work parked in the meantime is only performed by `runParkedWork`.
+     *
+     * @return true iff the solver was cancelled
+     */
+    public boolean resume() {
+        if (!cancelled) {
+            return false;
+        }
+        cancelled = false;
+        return true;
+    }
+
+    /**
+     * Performs the work parked while this solver was cancelled. Work parked again because the solver was cancelled
+     * in the meantime stays parked.
+     */
+    public void runParkedWork() {
+        for (var work = parkedWork.poll(); work != null; work = parkedWork.poll()) {
+            work.run();
+        }
+    }
+
+    private boolean parkIfCancelled(Runnable work) {
+        if (!cancelled) {
+            return false;
+        }
+        parkedWork.add(work);
+        if (!cancelled) {
+            // resumed concurrently, after the parked work may have been drained already
+            runParkedWork();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
     }
 
     public synchronized int stateCount() {
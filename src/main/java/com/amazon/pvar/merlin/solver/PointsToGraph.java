@@ -22,7 +22,7 @@ import com.amazon.pvar.merlin.ir.MethodCall;
 import com.amazon.pvar.merlin.ir.Register;
 import com.amazon.pvar.merlin.ir.Value;
 import com.amazon.pvar.merlin.ir.*;
-import com.amazon.pvar.merlin.livecollections.LiveCollection;
+import com.amazon.pvar.merlin.livecollections.IndexedLiveSet;
 import com.amazon.pvar.merlin.livecollections.LiveSet;
 import com.amazon.pvar.merlin.livecollections.Scheduler;
 import dk.brics.tajs.flowgraph.jsnodes.CallNode;
@@ -33,18 +33,26 @@ import java.util.Objects;
 /**
  * This class stores points-to information collected during the course of an analysis.
  *
- * Information is stored in two multimaps for easy bidirectional lookup.
+ * Information is stored in two multimaps for easy bidirectional lookup. Allocation sites and locations are numbered
+ * densely, and the sets in both maps are compressed bitsets over these numbers (see IndexedLiveSet).
  */
 public class PointsToGraph {
     private final Scheduler scheduler;
+    private final DenseIndex<Allocation> allocationIds = new DenseIndex<>();
+    private final DenseIndex<PointsToLocation> locationIds = new DenseIndex<>();
+    private final DenseIndex<CallNode> callNodeIds = new DenseIndex<>();
     private final LiveMap<PointsToLocation, Allocation> pointsToLiveMap;
 
     private final LiveMap<Allocation, PointsToLocation> allocationLiveMap;
 
+    // Index of the call nodes invoking each function allocation, maintained by addPointsToFact
+    private final LiveMap<FunctionAllocation, CallNode> invocationLiveMap;
+
     public PointsToGraph(Scheduler scheduler) {
         this.scheduler = scheduler;
-        pointsToLiveMap = LiveMap.create(scheduler);
-        allocationLiveMap = LiveMap.create(scheduler);
+        pointsToLiveMap = LiveMap.create(IndexedLiveSet.factory(scheduler, allocationIds)::create);
+        allocationLiveMap = LiveMap.create(IndexedLiveSet.factory(scheduler, locationIds)::create);
+        invocationLiveMap = LiveMap.create(IndexedLiveSet.factory(scheduler, callNodeIds)::create);
     }
 
     /**
@@ -131,27 +139,27 @@ public class PointsToGraph {
      * @param functionAlloc
      * @return
      */
-    public LiveCollection<CallNode> getKnownFunctionInvocations(FunctionAllocation functionAlloc) {
-        final var allocLiveMap = allocationLiveMap.get(functionAlloc);
-        DebugUtils.debug("listening for function invocations of " + functionAlloc.getAllocationStatement() +
-                " on " + allocLiveMap);
-        return allocLiveMap
-                .filter(ptl -> {
-                    if (ptl.getLocation() instanceof CallNode callNode) {
-                        if (ptl.getValue() instanceof Register register) {
-                            return callNode.getFunctionRegister() != -1 &&
-                                    callNode.getFunctionRegister() == register.getId() &&
-                                    callNode.getBlock().getFunction().equals(register.getContainingFunction());
-                        } else if (ptl.getValue() instanceof MethodCall methodCall) {
-                            return methodCall.getCallNode().equals(callNode);
-                        } else {
-                            return false;
-                        }
-                    }
-                    return false;
-                })
-                .map(ptl -> (CallNode) ptl.getLocation());
+    public LiveSet<CallNode> getKnownFunctionInvocations(FunctionAllocation functionAlloc) {
+        return invocationLiveMap.get(functionAlloc);
+    }
 
+    /**
+     * Whether `value` holds the function invoked by `location`, i.e. whether an allocation flowing to `value` at
+     * `location` is a callee of that call.
+     */
+    public static boolean isInvokedAt(Node location, Value value) {
+        if (location instanceof CallNode callNode) {
+            if (value instanceof Register register) {
+                return callNode.getFunctionRegister() != -1 &&
+                        callNode.getFunctionRegister() == register.getId() &&
+                        callNode.getBlock().getFunction().equals(register.getContainingFunction());
+            } else if (value instanceof MethodCall methodCall) {
+                return methodCall.getCallNode().equals(callNode);
+            } else {
+                return false;
+            }
+        }
+        return false;
     }
 
     /**
@@ -163,7 +171,11 @@ public class PointsToGraph {
     public void addPointsToFact(PointsToLocation pointsToLocation, Allocation allocation) {
         pointsToLiveMap.put(pointsToLocation, allocation);
         allocationLiveMap.put(allocation, pointsToLocation);
-        DebugUtils.debug("[" + this + "]: Discovered points-to: " + pointsToLocation + " -> " + allocation);
+        if (allocation instanceof FunctionAllocation functionAllocation &&
+                isInvokedAt(pointsToLocation.getLocation(), pointsToLocation.getValue())) {
+            invocationLiveMap.put(functionAllocation, (CallNode) pointsToLocation.getLocation());
+        }
+        DebugUtils.debug(() -> "[" + this + "]: Discovered points-to: " + pointsToLocation + " -> " + allocation);
     }
 
     /**
@@ -20,61 +20,182 @@ import org.jgrapht.graph.*;
 import org.jgrapht.nio.Attribute;
 import org.jgrapht.nio.DefaultAttribute;
 import org.jgrapht.nio.dot.DOTExporter;
-import org.jgrapht.traverse.BreadthFirstIterator;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
 
 /**
- * Tracks dependencies between queries to capture which query failed to resolve correctly. */
+ * Tracks dependencies between queries to capture which query failed to resolve correctly.
+ * <p>
+ * Query nodes are interned as dense ids. The dependencies of each query are stored as int adjacency rows, and its
+ * dependents as a concurrent set of ids. Registering a dependency does not take a graph-wide lock, so solver threads
+ * do not contend on the graph. Traversals read the rows without locking, so dependencies registered while a traversal
+ * runs may or may not be seen by it; a dependency is only published after its reverse edge, so a traversal that sees
+ * a dependency also sees the corresponding dependent.
+ */
 public final class QueryDependencyGraph {
 
-    private final Graph<QueryNode, DefaultEdge> theGraph = new DefaultDirectedGraph<>(DefaultEdge.class);
+    private final DenseIndex<QueryNode> nodeIds = new DenseIndex<>();
+    private final IntAdjacency dependencies = new IntAdjacency();
+    private final ChunkedArray<Set<Integer>> dependents = new ChunkedArray<>();
 
-    public synchronized QueryNode ensureVertexInGraph(QueryNode node) {
-        if (!theGraph.containsVertex(node)) {
-            theGraph.addVertex(node);
-        }
+    public QueryNode ensureVertexInGraph(QueryNode node) {
+        nodeIds.intern(node);
         return node;
     }
 
-    public synchronized void addDependency(QueryNode from, QueryNode to) {
-        final var source = ensureVertexInGraph(from);
-        final var dest = ensureVertexInGraph(to);
-        if (!theGraph.containsEdge(source, dest)) {
-            theGraph.addEdge(source, dest);
+    public void addDependency(QueryNode from, QueryNode to) {
+        final int source = nodeIds.intern(from);
+        final int dest = nodeIds.intern(to);
+        if (!dependencies.contains(source, dest)) {
+            // publish the reverse edge first, so that `exclusiveDependenciesOf` never sees `dest` as reachable from
+            // `source` without also seeing `source` among the dependents of `dest`
+            dependentsOf(dest).add(source);
+            dependencies.add(source, dest);
+        }
+    }
+
+    private Set<Integer> dependentsOf(int node) {
+        final var existing = dependents.get(node);
+        if (existing != null) {
+            return existing;
         }
+        final Set<Integer> created = ConcurrentHashMap.newKeySet();
+        return dependents.compareAndSet(node, null, created) ? created : dependents.get(node);
     }
 
-    private Iterator<QueryNode> reachableFrom(QueryNode start) {
-        return new BreadthFirstIterator<>(theGraph, start);
+    /**
+     * @return true if `to` is a direct dependency of `from`
+     */
+    public boolean hasDependency(QueryNode from, QueryNode to) {
+        return dependencies.contains(nodeIds.idOf(from), nodeIds.idOf(to));
     }
 
-    public synchronized Map<Query, Set<Exception>> errorsImpactingQuery(QueryNode node) {
+    /**
+     * Breadth-first traversal of the nodes reachable from `start` (including `start`), marking them in `visited`.
+     * Nodes already marked in `visited` are not traversed again.
+     */
+    private void reachableFrom(int start, BitSet visited, IntConsumer action) {
+        if (start < 0 || visited.get(start)) {
+            return;
+        }
+        final var worklist = new ArrayDeque<Integer>();
+        visited.set(start);
+        worklist.add(start);
+        while (!worklist.isEmpty()) {
+            final int node = worklist.poll();
+            action.accept(node);
+            dependencies.forEachSuccessor(node, successor -> {
+                if (!visited.get(successor)) {
+                    visited.set(successor);
+                    worklist.add(successor);
+                }
+            });
+        }
+    }
+
+    public Map<Query, Set<Exception>> errorsImpactingQuery(QueryNode node) {
         final var exceptions = new HashMap<Query, Set<Exception>>();
-        for (Iterator<QueryNode> it = reachableFrom(node); it.hasNext(); ) {
-            var reachableNode = it.next();
-            final var errors =  reachableNode.getErrors();
+        // the node's own errors are reported even if its dependencies were not tracked
+        if (!node.getErrors().isEmpty()) {
+            exceptions.put(node.getQuery(), node.getErrors());
+        }
+        reachableFrom(nodeIds.idOf(node), new BitSet(), id -> {
+            final var reachableNode = nodeIds.get(id);
+            final var errors = reachableNode.getErrors();
             if (!errors.isEmpty()) {
                 exceptions.put(reachableNode.getQuery(), errors);
             }
-        }
+        });
         return exceptions;
     }
 
-    public synchronized Set<Query> directDependenciesOf(QueryNode query) {
-        return theGraph.outgoingEdgesOf(query)
-                .stream().map(edge -> {
-                    final var dst = theGraph.getEdgeTarget(edge);
-                    return dst.getQuery();
-                })
-                .collect(Collectors.toSet());
+    /**
+     * Computes all queries (transitively) needed to answer `roots`, including the roots themselves.
+     */
+    public Set<Query> dependencyConeOf(Collection<QueryNode> roots) {
+        final var cone = new HashSet<Query>();
+        final var visited = new BitSet();
+        for (final var root : roots) {
+            cone.add(root.getQuery());
+            reachableFrom(nodeIds.idOf(root), visited, id -> cone.add(nodeIds.get(id).getQuery()));
+        }
+        return cone;
+    }
+
+    /**
+     * Computes the queries that are only needed to answer `roots`: all queries reachable from `roots`, except those
+     * that are also reachable from a query outside of that set, or from one of the `retained` queries.
+     */
+    public Set<Query> exclusiveDependenciesOf(Collection<QueryNode> roots, Collection<QueryNode> retained) {
+        final var cone = new BitSet();
+        for (final var root : roots) {
+            reachableFrom(nodeIds.idOf(root), cone, id -> {});
+        }
+        final var retainedIds = new BitSet();
+        retained.forEach(node -> {
+            final int id = nodeIds.idOf(node);
+            if (id >= 0) {
+                retainedIds.set(id);
+            }
+        });
+        final var stillNeeded = new BitSet();
+        cone.stream().forEach(node -> {
+            final var nodeDependents = dependents.get(node);
+            final var requiredElsewhere = retainedIds.get(node) || (nodeDependents != null && nodeDependents.stream()
+                    .anyMatch(dependent -> !cone.get(dependent)));
+            if (requiredElsewhere) {
+                reachableFrom(node, stillNeeded, id -> {});
+            }
+        });
+        final var result = new HashSet<Query>();
+        cone.stream()
+                .filter(node -> !stillNeeded.get(node))
+                .forEach(node -> result.add(nodeIds.get(node).getQuery()));
+        return result;
+    }
+
+    public Set<Query> directDependenciesOf(QueryNode query) {
+        final var result = new HashSet<Query>();
+        dependencies.forEachSuccessor(nodeIds.idOf(query),
+                dependency -> result.add(nodeIds.get(dependency).getQuery()));
+        return result;
     }
 
-    public synchronized String status() {
-        return "query dependencies: " + theGraph.edgeSet().size();
+    public long dependencyCount() {
+        return dependencies.edgeCount();
+    }
+
+    public String status() {
+        return "query dependencies: " + dependencyCount();
+    }
+
+    /**
+     * Copies the current graph into a JGraphT graph, e.g. for exporting it.
+     */
+    public Graph<QueryNode, DefaultEdge> toJGraphT() {
+        final Graph<QueryNode, DefaultEdge> graph = new DefaultDirectedGraph<>(DefaultEdge.class);
+        final int nodeCount = nodeIds.size();
+        for (int id = 0; id < nodeCount; id++) {
+            final var node = nodeIds.get(id);
+            if (node != null) {
+                graph.addVertex(node);
+            }
+        }
+        for (int id = 0; id < nodeCount; id++) {
+            final var source = nodeIds.get(id);
+            dependencies.forEachSuccessor(id, dependency -> {
+                final var dest = nodeIds.get(dependency);
+                if (source != null && dest != null) {
+                    graph.addVertex(dest);
+                    graph.addEdge(source, dest);
+                }
+            });
+        }
+        return graph;
     }
 
     public void visualize() {
@@ -86,7 +207,7 @@ public final class QueryDependencyGraph {
         });
         try {
             final var tempDotFile = File.createTempFile("query-dependencies", ".dot");
-            dotExporter.exportGraph(theGraph, tempDotFile);
+            dotExporter.exportGraph(toJGraphT(), tempDotFile);
             System.out.println("DOT written to " + tempDotFile);
 //            tempDotFile.deleteOnExit();
             final var tempSVG = File.createTempFile("query-dependencies", ".svg");
@@ -100,4 +221,3 @@ public final class QueryDependencyGraph {
     }
 
 }
-
@@ -16,14 +16,14 @@ import com.amazon.pvar.merlin.ir.{
   Allocation,
   FlowgraphUtils,
   FunctionAllocation,
-  MethodCall,
   NodeState,
   Register,
   Value
 }
-import com.amazon.pvar.merlin.livecollections.{LiveSet, Scheduler}
-import com.amazon.pvar.merlin.solver.flowfunctions.ForwardFlowFunctions
-import dk.brics.tajs.flowgraph.{AbstractNode, FlowGraph}
+import com.amazon.pvar.merlin.instrumentation.{HandlerCategory, MerlinEvents, Metrics, QueryTracer}
+import com.amazon.pvar.merlin.livecollections.{LiveSet, Scheduler, TaggedHandler}
+import com.amazon.pvar.merlin.solver.flowfunctions.{AbstractFlowFunctions, ForwardFlowFunctions}
+import dk.brics.tajs.flowgraph.{AbstractNode, FlowGraph, Function}
 import dk.brics.tajs.flowgraph
 import dk.brics.tajs.flowgraph.jsnodes.{CallNode, DeclareFunctionNode, LoadNode, ReadPropertyNode, WritePropertyNode}
 import sync.pds.solver.nodes.Node
@@ -32,12 +32,37 @@ import java.time.temporal.{ChronoUnit, Temporal, TemporalUnit}
 import java.time.{Duration, Instant}
 import java.util
 import java.util.Date
-import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{
+  CompletableFuture,
+  CompletionException,
+  ConcurrentHashMap,
+  Executors,
+  ScheduledExecutorService,
+  TimeUnit
+}
+import java.util.function.Consumer
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger, AtomicLong}
+import java.util.concurrent.locks.StampedLock
+import javax.management.JMException
 import scala.collection.mutable
 import scala.jdk.CollectionConverters._
-
-class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
-  import QueryManager.{BackwardQuery, ForwardQuery}
+import scala.jdk.OptionConverters._
+
+/** @param dependencyTracking
+  *   how much of the query dependency graph to record, see `DependencyTracking`
+  * @param dependencySampleRate
+  *   the fraction of queries whose dependencies are recorded when sampling
+  */
+class QueryManager(
+    flowGraph: FlowGraph,
+    val scheduler: Scheduler,
+    val dependencyTracking: DependencyTracking,
+    dependencySampleRate: Double
+) {
+  def this(flowGraph: FlowGraph, scheduler: Scheduler) =
+    this(flowGraph, scheduler, DependencyTracking.FULL, 1.0)
+
+  import QueryManager.{AnswerWatcher, BackwardQuery, ForwardQuery, answerPollIntervalMillis, quiescenceMonitor}
 
   private val backwardSolvers =
     mutable.Map.empty[BackwardQuery, BackwardMerlinSolver]
@@ -54,8 +79,8 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
   private val queriedCallNodes = mutable.Set.empty[CallNode]
 
   // separate counters to allow lock-free access for status reporting
-  private val backwardSolverCount = new AtomicInteger(0)
-  private val forwardSolverCount = new AtomicInteger(0)
+  private val backwardSolversCreated = new AtomicInteger(0)
+  private val forwardSolversCreated = new AtomicInteger(0)
 
   private val callGraph = new CallGraph(scheduler)
 
@@ -63,12 +88,67 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
 
   private val queryDependencyGraph = new QueryDependencyGraph()
 
-  private val queryNodes = mutable.Map.empty[Query, QueryNode]
+  private val queryNodes = new ConcurrentHashMap[Query, QueryNode]()
+
+  // The queries whose dependencies are recorded when sampling, see `isTracked`
+  private val sampledQueries = ConcurrentHashMap.newKeySet[Query]()
+
+  @volatile private var solveStart: Option[Instant] = None
+
+  // Queries currently awaited through `resolveCallUntil` and friends, with the number of requests awaiting them. Their
+  // solvers are never cancelled on behalf of another request.
+  private val pinnedQueries = mutable.Map.empty[Query, Int]
 
-  private var solveStart: Option[Instant] = None
+  private val answerWatcherIds = new AtomicLong(0)
+
+  // Cancelling solvers holds the write lock and resuming solvers holds the read lock. Registering a dependency, the
+  // hottest path of the solvers, only takes an optimistic read and falls back to the read lock if a cancellation
+  // overlapped it. A solver is thus never left cancelled based on a dependency graph that missed a dependent.
+  private val cancellationLock = new StampedLock()
+
+  // Rounds of unresolved call handling run one at a time while holding `unresolvedCallLock`, see `solve`.
+  // `unresolvedCallRounds` is incremented when a round starts and when it ends, so it is odd while a round runs.
+  private val unresolvedCallLock = new Object
+  private val unresolvedCallRounds = new AtomicLong(0)
+  @volatile private var solving = false
+
+  @volatile private var tracer: Option[QueryTracer] = None
+
+  /** Records the timeline of every query started from now on with `queryTracer`. */
+  def setTracer(queryTracer: QueryTracer): Unit = {
+    tracer = Some(queryTracer)
+    scheduler.setTaskObserver(queryTracer)
+  }
+
+  def getTracer: java.util.Optional[QueryTracer] = tracer.toJava
 
   private def registerQuery(query: Query): Unit = {
-    queryDependencyGraph.ensureVertexInGraph(getNodeForQuery(query))
+    if (isTracked(query)) {
+      queryDependencyGraph.ensureVertexInGraph(getNodeForQuery(query))
+    }
+  }
+
+  /** Whether the dependencies of `query` are recorded. When sampling, these are the sampled root queries and all
+    * queries registered as dependencies of tracked queries, i.e. the dependency cones of the sampled roots. A query
+    * that only becomes tracked after registering dependencies of its own misses those earlier dependencies.
+    */
+  private def isTracked(query: Query): Boolean = dependencyTracking match {
+    case DependencyTracking.FULL    => true
+    case DependencyTracking.OFF     => false
+    case DependencyTracking.SAMPLED => sampledQueries.contains(query)
+  }
+
+  /** Decides whether to sample `query`, which was started directly rather than as a subquery. Sampling is based
+    * on the query's hash, so that the same roots are sampled across runs.
+    */
+  private def sampleIfRoot(query: Query, dependent: Query): Unit = {
+    if (dependencyTracking == DependencyTracking.SAMPLED && dependent == null) {
+      // spread the hash bits, then map to [0, 1)
+      val mixed = (query.hashCode * 0x9e3779b9L) & 0xffffffffL
+      if (mixed.toDouble / 0x100000000L.toDouble < dependencySampleRate) {
+        sampledQueries.add(query)
+      }
+    }
   }
 
   def getOrCreateBackwardSolver(
@@ -88,18 +168,20 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
           val solver =
             new BackwardMerlinSolver(this, backwardQuery)
           solver.setFunctionQuery(true)
-          backwardSolverCount.incrementAndGet()
+          backwardSolversCreated.incrementAndGet()
           newSolverAdded = true
+          tracer.foreach(_.solverCreated(new Query(backwardQuery, false)))
           solver
         }
       )
     }
+    resumeIfCancelled(result)
     (result, newSolverAdded)
   }
 
   private def solveAndLogExceptions(query: Query, solver: MerlinSolver): Unit = {
     try {
-      solver.solve()
+      MerlinEvents.solve(query, () => solver.solve())
     } catch {
       case exn: Exception =>
         System.err.println(s"$query threw $exn")
@@ -112,12 +194,27 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
       backwardQuery: BackwardQuery,
       resolvingCallNode: java.util.Optional[CallNode],
       answerSet: Any
+  ): BackwardMerlinSolver = getOrStartBackwardQuery(backwardQuery, resolvingCallNode, answerSet, null)
+
+  /** Like `getOrStartBackwardQuery(backwardQuery, resolvingCallNode, answerSet)`, but first registers the query
+    * as a dependency of `dependent`, unless `dependent` is null.
+    */
+  def getOrStartBackwardQuery(
+      backwardQuery: BackwardQuery,
+      resolvingCallNode: java.util.Optional[CallNode],
+      answerSet: Any,
+      dependent: Query
   ): BackwardMerlinSolver = {
+    if (dependent != null) {
+      registerQueryDependency(dependent, new Query(backwardQuery, false))
+    }
+    sampleIfRoot(new Query(backwardQuery, false), dependent)
     val (solver, newSolverAdded) = getOrCreateBackwardSolver(backwardQuery, resolvingCallNode)
     // This should only be done if new solver is actually created!!!!!
     if (newSolverAdded) {
-      scheduler.addThread({
-        solveAndLogExceptions(new Query(backwardQuery, false), solver)
+      val query = new Query(backwardQuery, false)
+      scheduler.addOwnedThread(query, HandlerCategory.SOLVER_START)({
+        solveAndLogExceptions(query, solver)
       })
     }
     backwardSolversToLiveSets.synchronized {
@@ -141,27 +238,88 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
     val result = forwardSolvers.synchronized {
       forwardSolvers.getOrElseUpdate(
         forwardQuery, {
-          forwardSolverCount.incrementAndGet()
+          forwardSolversCreated.incrementAndGet()
           newSolverAdded = true
+          tracer.foreach(_.solverCreated(new Query(forwardQuery, true)))
           new ForwardMerlinSolver(this, forwardQuery)
         }
       )
     }
+    resumeIfCancelled(result)
     (result, newSolverAdded)
   }
 
   def getOrStartForwardQuery(
       forwardQuery: ForwardQuery
+  ): ForwardMerlinSolver = getOrStartForwardQuery(forwardQuery, null)
+
+  /** Like `getOrStartForwardQuery(forwardQuery)`, but first registers the query as a dependency of `dependent`,
+    * unless `dependent` is null.
+    */
+  def getOrStartForwardQuery(
+      forwardQuery: ForwardQuery,
+      dependent: Query
   ): ForwardMerlinSolver = {
+    if (dependent != null) {
+      registerQueryDependency(dependent, new Query(forwardQuery, true))
+    }
+    sampleIfRoot(new Query(forwardQuery, true), dependent)
     val (solver, newSolverAdded) = getOrCreateForwardSolver(forwardQuery)
     if (newSolverAdded) {
-      scheduler.addThread({
-        solveAndLogExceptions(new Query(forwardQuery, true), solver)
+      val query = new Query(forwardQuery, true)
+      scheduler.addOwnedThread(query, HandlerCategory.SOLVER_START)({
+        solveAndLogExceptions(query, solver)
       })
     }
     solver
   }
 
+  /** A solver that was cancelled earlier is needed again by some query. */
+  private def resumeIfCancelled(solver: MerlinSolver): Unit = {
+    if (solver.isCancelled) {
+      resumeCancelledIn(Set(solver.initialQueryWithDirection()))
+    }
+  }
+
+  /** Resumes the cancelled solvers among `queries` and their transitive subqueries. `cancelQueries` cancels
+    * subqueries along with the queries depending on them, so resuming a query alone would leave the subqueries
+    * it subscribed to before being cancelled without their parked work.
+    */
+  private def resumeCancelledIn(queries: Set[Query]): Unit = {
+    val stamp = cancellationLock.readLock()
+    try {
+      val cone =
+        if (dependencyTracking == DependencyTracking.FULL) {
+          queryDependencyGraph.dependencyConeOf(queries.map(getNodeForQuery).asJava).asScala
+        } else {
+          queries
+        }
+      cone.foreach(query =>
+        solverFor(query).foreach(solver =>
+          if (solver.resume()) {
+            scheduler.addOwnedThread(query, HandlerCategory.SOLVER_RESUME)(solver.runParkedWork())
+          }
+        )
+      )
+    } finally {
+      cancellationLock.unlockRead(stamp)
+    }
+  }
+
+  private[solver] def solverFor(query: Query): Option[MerlinSolver] = {
+    if (query.isForward) {
+      forwardSolvers.synchronized { forwardSolvers.get(query.queryValue) }
+    } else {
+      backwardSolvers.synchronized { backwardSolvers.get(query.queryValue) }
+    }
+  }
+
+  private[solver] def dependencyConeOf(queries: Set[Query]): Set[Query] =
+    queryDependencyGraph.dependencyConeOf(queries.map(getNodeForQuery).asJava).asScala.toSet
+
+  private[solver] def directDependenciesOf(query: Query): Set[Query] =
+    queryDependencyGraph.directDependenciesOf(getNodeForQuery(query)).asScala.toSet
+
   def getPointsToGraph: PointsToGraph = pointsToGraph
 
   def getCallGraph: CallGraph = callGraph
@@ -172,24 +330,15 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
       .collect({ case callNode: CallNode => callNode })
       .foreach(callNode => {
         (value, alloc) match {
-          case (reg: Register, funcAlloc: FunctionAllocation)
-              if callNode.getFunctionRegister != -1 &&
-                reg.getId == callNode.getFunctionRegister &&
-                reg.getContainingFunction == callNode.getBlock.getFunction =>
+          case (reg: Register, funcAlloc: FunctionAllocation) if PointsToGraph.isInvokedAt(callNode, reg) =>
             getCallGraph.addEdge(callNode, funcAlloc.getAllocationStatement.getFunction)
           case _ =>
         }
       })
 
     this.getPointsToGraph.addPointsToFact(location, value, alloc)
-    (location, alloc, value) match {
-      case (callNode: CallNode, functionAllocation: FunctionAllocation, reg: Register)
-          if callNode.getFunctionRegister != -1 &&
-            reg.getId == callNode.getFunctionRegister &&
-            reg.getContainingFunction == callNode.getBlock.getFunction =>
-        this.getCallGraph.addEdge(callNode, functionAllocation.getAllocationStatement.getFunction)
-      case (callNode: CallNode, functionAllocation: FunctionAllocation, methodCall: MethodCall)
-          if callNode.equals(methodCall.getCallNode) =>
+    (location, alloc) match {
+      case (callNode: CallNode, functionAllocation: FunctionAllocation) if PointsToGraph.isInvokedAt(callNode, value) =>
         this.getCallGraph.addEdge(callNode, functionAllocation.getAllocationStatement.getFunction)
       case _ =>
     }
@@ -197,7 +346,9 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
 
   def solve(): Unit = solve(false)
 
-  /** Run all solvers to completion */
+  /** Run all solvers to completion. With `reportStatus`, the status of this QueryManager is published as a
+    * `QueryManagerStatus` MXBean while solving, and each fixpoint iteration logs a few counters.
+    */
   def solve(reportStatus: Boolean): Int = {
     solveStart = Some(Instant.now())
     // After solving, we still need to handle unresolved function calls, which may each
@@ -206,57 +357,427 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
     // calls until no new data flows are found
     var stillIterating = true
     var iteration = 0
-    if (reportStatus) {
-      startStatusReporting(1000)
+    val status = if (reportStatus) publishStatus() else None
+    solving = true
+    try {
+      while (stillIterating) {
+        if (reportStatus) {
+          System.err.println(s"Iteration $iteration - fwd solvers: $forwardSolverCount, bwd solvers: " +
+            s"$backwardSolverCount, call graph edges: ${callGraph.size()}")
+        } else {
+          System.err.println(s"Iteration $iteration")
+        }
+        val event = new MerlinEvents.FixpointIterationEvent()
+        event.begin()
+        scheduler.waitUntilDone()
+        stillIterating = addDataFlowsForUnresolvedFunctionCalls()
+        event.iteration = iteration
+        event.changed = stillIterating
+        event.commit()
+        iteration += 1
+      }
+    } finally {
+      solving = false
+      status.foreach(_.close())
     }
-    while (stillIterating) {
-      System.err.println(s"Iteration $iteration")
-      scheduler.waitUntilDone()
-      stillIterating = false
-      for (solver <- backwardSolvers.values ++ forwardSolvers.values) {
+    iteration
+  }
+
+  private def publishStatus(): Option[QueryManagerStatus] = {
+    val name = s"solve-${Integer.toHexString(System.identityHashCode(this))}"
+    try {
+      val status = QueryManagerStatus.register(this, name)
+      System.err.println(s"Status published as MXBean com.amazon.pvar.merlin:type=QueryManager,name=\"$name\"")
+      Some(status)
+    } catch {
+      case exn: JMException =>
+        System.err.println(s"Could not register status MXBean: $exn")
+        None
+    }
+  }
+
+  /** Performs one round of unresolved call handling on all solvers. Rounds never overlap, since each round takes
+    * the call states it examines from the solvers.
+    *
+    * @return true iff any solver added new data flows
+    */
+  private def addDataFlowsForUnresolvedFunctionCalls(): Boolean = unresolvedCallLock.synchronized {
+    unresolvedCallRounds.incrementAndGet()
+    try {
+      // Solvers may be started while handling unresolved calls, so iterate over a snapshot. Solvers started
+      // in this round are picked up by the next one.
+      var changed = false
+      for (solver <- allSolvers) {
         if (solver.addDataFlowsForUnresolvedFunctionCalls()) {
-          stillIterating = true
+          changed = true
         }
       }
-      iteration += 1
+      changed
+    } finally {
+      unresolvedCallRounds.incrementAndGet()
     }
-    if (reportStatus) {
-      stopStatusReporting()
+  }
+
+  /** Whether unresolved call handling by a running `solve` may still add flows to any of `solvers`. Without a
+    * running `solve`, flows for unresolved calls are not added at all.
+    */
+  private def unresolvedCallsPending(solvers: Iterable[MerlinSolver]): Boolean = solving && {
+    val round = unresolvedCallRounds.get()
+    round % 2 == 1 || solvers.exists(_.hasCallStatesAwaitingResolution) || unresolvedCallRounds.get() != round
+  }
+
+  /** The solvers in the dependency cone of `rootQueries`, or all solvers if the cone may be incomplete. */
+  private def coneSolvers(rootQueries: Set[Query]): Iterable[MerlinSolver] =
+    if (dependencyTracking == DependencyTracking.FULL) {
+      queryDependencyGraph.dependencyConeOf(rootQueries.map(getNodeForQuery).asJava).asScala.flatMap(solverFor)
+    } else {
+      allSolvers
+    }
+
+  private def allSolvers: List[MerlinSolver] =
+    backwardSolvers.synchronized { backwardSolvers.values.toList } ++
+      forwardSolvers.synchronized { forwardSolvers.values.toList }
+
+  /** Resolve the callees of `callNode` until at least `limit` callees are found. */
+  def resolveCallUntil(callNode: CallNode, limit: Int): QueryResult[Function] =
+    resolveCallUntil(callNode, (callees: java.util.Set[Function]) => callees.size() >= limit)
+
+  /** Resolve the callees of `callNode` until `isSufficient` holds for the callees found so far. Once it does,
+    * the solvers that are only needed to answer this call are cancelled, and the callees found so far are
+    * returned. Otherwise, solving continues until all solvers are done and the complete set of callees is
+    * returned.
+    */
+  def resolveCallUntil(
+      callNode: CallNode,
+      isSufficient: java.util.function.Predicate[java.util.Set[Function]]
+  ): QueryResult[Function] = resolveCall(callNode, isSufficient, None)
+
+  /** Like `resolveCallUntil`, but gives up once `timeout` has passed, cancelling the solvers only this call
+    * depends on and returning the callees found so far.
+    */
+  def resolveCallUntil(
+      callNode: CallNode,
+      isSufficient: java.util.function.Predicate[java.util.Set[Function]],
+      timeout: Duration
+  ): QueryResult[Function] = resolveCall(callNode, isSufficient, Some(Instant.now().plus(timeout)))
+
+  /** Resolve the callees of `callNode`, giving up after `timeout`. */
+  def resolveCallWithin(callNode: CallNode, timeout: Duration): QueryResult[Function] =
+    resolveCallUntil(callNode, (_: java.util.Set[Function]) => false, timeout)
+
+  private def resolveCall(
+      callNode: CallNode,
+      isSufficient: java.util.function.Predicate[java.util.Set[Function]],
+      deadline: Option[Instant]
+  ): QueryResult[Function] = {
+    val rootQueries = AbstractFlowFunctions.resolveFunctionCallWithQueries(callNode, this).getSecond.asScala.toSet
+    join(new PendingAnswer(rootQueries, callGraph.getCalleesOf(callNode), isSufficient, deadline).start())
+  }
+
+  /** Compute the points-to set of `query`, giving up after `timeout`. */
+  def pointsToWithin(query: BackwardQuery, timeout: Duration): QueryResult[Allocation] =
+    pointsToUntil(query, Some(Instant.now().plus(timeout)))
+
+  private def pointsToUntil(query: BackwardQuery, deadline: Option[Instant]): QueryResult[Allocation] =
+    join(pointsToAsync(query, deadline))
+
+  private def pointsToAsync(
+      query: BackwardQuery,
+      deadline: Option[Instant]
+  ): CompletableFuture[QueryResult[Allocation]] = {
+    getOrStartBackwardQuery(query, java.util.Optional.empty())
+    new PendingAnswer(
+      Set(new Query(query, false)),
+      pointsToGraph.getPointsToSet(query.stmt().getNode, query.fact()),
+      (_: java.util.Set[Allocation]) => false,
+      deadline
+    ).start()
+  }
+
+  /** Solve a batch of backward queries concurrently, giving each query at most `perQueryTimeout` from when
+    * it is started. Queries that run past their deadline are cancelled along with the subqueries only they
+    * depend on, so that they do not hold up the remaining queries, and their partial results are reported.
+    * A query is complete as soon as the queries it depends on are done, regardless of the rest of the batch.
+    */
+  def solveWithDeadlines(
+      queries: Iterable[BackwardQuery],
+      perQueryTimeout: Duration
+  ): Map[BackwardQuery, QueryResult[Allocation]] = {
+    val results = queries.toList.map(query => query -> pointsToAsync(query, Some(Instant.now().plus(perQueryTimeout))))
+    results.map { case (query, result) => query -> join(result) }.toMap
+  }
+
+  private def join[A](result: CompletableFuture[QueryResult[A]]): QueryResult[A] =
+    try {
+      result.join()
+    } catch {
+      case exn: CompletionException => throw exn.getCause
+    }
+
+  /** Asynchronously resolve the callees of `callNode`. The returned future completes once all queries the
+    * call's resolution depends on have stopped making progress, which usually happens well before the
+    * scheduler as a whole becomes idle.
+    *
+    * Flows for unresolved calls are only added by `solve`, so callees that are only found through them may
+    * be missing unless `solve` runs as well.
+    */
+  def calleesOf(callNode: CallNode): CompletableFuture[java.util.Set[Function]] =
+    calleesOf(callNode, (_: Function) => ())
+
+  /** Like `calleesOf`, but additionally calls `onCallee` for every callee as soon as it is discovered. */
+  def calleesOf(callNode: CallNode, onCallee: Consumer[Function]): CompletableFuture[java.util.Set[Function]] = {
+    val rootQueries = AbstractFlowFunctions.resolveFunctionCallWithQueries(callNode, this).getSecond.asScala.toSet
+    answerWhenQuiescent(rootQueries, callGraph.getCalleesOf(callNode), onCallee)
+  }
+
+  /** Asynchronously find the call sites of `function`. See `calleesOf`. */
+  def callersOf(function: Function): CompletableFuture[java.util.Set[CallNode]] =
+    callersOf(function, (_: CallNode) => ())
+
+  /** Like `callersOf`, but additionally calls `onCaller` for every call site as soon as it is discovered. */
+  def callersOf(function: Function, onCaller: Consumer[CallNode]): CompletableFuture[java.util.Set[CallNode]] = {
+    val rootQuery = AbstractFlowFunctions.findInvocationsOfFunctionWithQuery(function, this).getSecond
+    answerWhenQuiescent(Set(rootQuery), callGraph.getInvocationsOf(function), onCaller)
+  }
+
+  private def answerWhenQuiescent[A](
+      rootQueries: Set[Query],
+      answers: LiveSet[A],
+      onAnswer: Consumer[A]
+  ): CompletableFuture[java.util.Set[A]] = {
+    val result = new CompletableFuture[java.util.Set[A]]()
+    val watcher = TaggedHandler(
+      AnswerWatcher(answerWatcherIds.incrementAndGet()),
+      (answer: A) => {
+        if (!result.isDone) {
+          onAnswer.accept(answer)
+        }
+      },
+      category = HandlerCategory.ANSWER_WATCHER
+    )
+    answers.onAdd(watcher)
+    result.whenComplete((_, _) => answers.removeHandler(watcher))
+    completeWhenQuiescent(rootQueries, answers, result)
+    result
+  }
+
+  private def completeWhenQuiescent[A](
+      rootQueries: Set[Query],
+      answers: LiveSet[A],
+      result: CompletableFuture[java.util.Set[A]]
+  ): Unit = {
+    quiescenceMonitor.schedule(
+      (() => {
+        if (!result.isDone) {
+          if (scheduler.isCancelled) {
+            result.cancel(false)
+          } else if (isConeQuiescent(rootQueries)) {
+            tracer.foreach(queryTracer => rootQueries.foreach(queryTracer.coneQuiescent))
+            result.complete(answers.currentElems.asJava)
+          } else {
+            completeWhenQuiescent(rootQueries, answers, result)
+          }
+        }
+      }): Runnable,
+      answerPollIntervalMillis,
+      TimeUnit.MILLISECONDS
+    )
+  }
+
+  /** Whether no work is pending for `rootQueries` or any query they depend on. The dependency cone is computed
+    * again after checking the scheduler, since subqueries spawned in the meantime are only registered as
+    * dependencies by tasks of the cone that were still pending.
+    */
+  private[solver] def isConeQuiescent(rootQueries: Set[Query]): Boolean = {
+    if (dependencyTracking == DependencyTracking.FULL) {
+      def cone() = queryDependencyGraph.dependencyConeOf(rootQueries.map(getNodeForQuery).asJava)
+      val before = cone()
+      scheduler.isQuiescent(before.asScala) && cone() == before
+    } else {
+      // the cone may be incomplete, so only global quiescence is reliable
+      scheduler.isQuiescent
     }
-    iteration
   }
 
-  def getNodeForQuery(query: Query) = queryNodes.get(query) match {
-    case Some(node) => node
-    case None =>
-      val node = new QueryNode(query)
-      queryNodes(query) = node
-      node
+  /** Cancel the solver for `query` together with the subqueries no other query depends on. */
+  def cancelQuery(query: Query): Unit = cancelQueries(Set(query))
+
+  /** The answers of `rootQueries`, settled once `isSufficient` holds for them, the dependency cone of
+    * `rootQueries` is done, or `deadline` passes, whichever happens first. The root queries are pinned until
+    * then, and unless the answers are complete, the solvers only they depend on are cancelled before `start`'s
+    * future completes.
+    */
+  private final class PendingAnswer[A](
+      rootQueries: Set[Query],
+      answers: LiveSet[A],
+      isSufficient: java.util.function.Predicate[java.util.Set[A]],
+      deadline: Option[Instant]
+  ) {
+    private val result = new CompletableFuture[QueryResult[A]]()
+    private val settled = new AtomicBoolean(false)
+    private val watcher = TaggedHandler(
+      AnswerWatcher(answerWatcherIds.incrementAndGet()),
+      (_: A) => checkAnswers(),
+      category = HandlerCategory.ANSWER_WATCHER
+    )
+
+    def start(): CompletableFuture[QueryResult[A]] = {
+      pinQueries(rootQueries)
+      try {
+        // a root may have been cancelled on behalf of another request before it was pinned
+        resumeCancelledIn(rootQueries)
+        answers.onAdd(watcher)
+        checkAnswers()
+        poll()
+      } catch {
+        case exn: Throwable => fail(exn)
+      }
+      result
+    }
+
+    private def checkAnswers(): Unit =
+      if (!settled.get && isSufficient.test(answers.currentElems.asJava)) {
+        settle(QueryResult.Status.SUFFICIENT)
+      }
+
+    private def poll(): Unit =
+      quiescenceMonitor.schedule(
+        (() =>
+          try {
+            if (!settled.get) {
+              if (scheduler.isCancelled) {
+                settle(QueryResult.Status.CANCELLED)
+              } else if (isConeQuiescent(rootQueries) && !unresolvedCallsPending(coneSolvers(rootQueries))) {
+                val sufficient = isSufficient.test(answers.currentElems.asJava)
+                settle(if (sufficient) QueryResult.Status.SUFFICIENT else QueryResult.Status.COMPLETE)
+              } else if (deadline.exists(Instant.now().isAfter)) {
+                settle(QueryResult.Status.TIMED_OUT)
+              } else {
+                poll()
+              }
+            }
+          } catch {
+            case exn: Throwable => fail(exn)
+          }): Runnable,
+        answerPollIntervalMillis,
+        TimeUnit.MILLISECONDS
+      )
+
+    private def settle(status: QueryResult.Status): Unit =
+      if (settled.compareAndSet(false, true)) {
+        answers.removeHandler(watcher)
+        unpinQueries(rootQueries)
+        if (status != QueryResult.Status.COMPLETE) {
+          cancelQueries(rootQueries)
+        }
+        result.complete(new QueryResult(answers.currentElems.asJava, status))
+      }
+
+    private def fail(exn: Throwable): Unit =
+      if (settled.compareAndSet(false, true)) {
+        answers.removeHandler(watcher)
+        unpinQueries(rootQueries)
+        result.completeExceptionally(exn)
+      }
   }
 
+  private def pinQueries(queries: Set[Query]): Unit = pinnedQueries.synchronized {
+    queries.foreach(query => pinnedQueries(query) = pinnedQueries.getOrElse(query, 0) + 1)
+  }
+
+  private def unpinQueries(queries: Set[Query]): Unit = pinnedQueries.synchronized {
+    queries.foreach(query =>
+      pinnedQueries.get(query) match {
+        case Some(1) => pinnedQueries.remove(query)
+        case Some(count) => pinnedQueries(query) = count - 1
+        case None =>
+      }
+    )
+  }
+
+  /** Cancel the solvers for `queries`, together with all of their transitive subqueries that no other query
+    * depends on. Cancelled solvers are resumed if they are requested again later on.
+    *
+    * Does nothing unless dependency tracking is `FULL`: with an incomplete dependency graph, other queries may
+    * depend on any of these solvers without us knowing.
+    */
+  def cancelQueries(queries: Set[Query]): Unit = {
+    if (dependencyTracking == DependencyTracking.FULL) {
+      val stamp = cancellationLock.writeLock()
+      try {
+        val retained = pinnedQueries.synchronized { pinnedQueries.keySet.toSet }
+        val exclusive = queryDependencyGraph.exclusiveDependenciesOf(
+          queries.map(getNodeForQuery).asJava,
+          retained.map(getNodeForQuery).asJava
+        )
+        exclusive.forEach(query => solverFor(query).foreach(_.cancel()))
+      } finally {
+        cancellationLock.unlockWrite(stamp)
+      }
+    }
+  }
+
+  def getNodeForQuery(query: Query): QueryNode = {
+    val existing = queryNodes.get(query)
+    if (existing != null) existing else queryNodes.computeIfAbsent(query, new QueryNode(_))
+  }
+
+  /** Records that `initialQuery` depends on `subQuery`. Register dependencies before starting the subquery (see
+    * the `dependent` parameter of `getOrStartBackwardQuery`), so that the subquery is resumed if it was cancelled.
+    */
   def registerQueryDependency(initialQuery: Query, subQuery: Query): Unit = {
-    queryDependencyGraph.addDependency(getNodeForQuery(initialQuery), getNodeForQuery(subQuery))
+    tracer.foreach(_.subqueryRegistered(initialQuery, subQuery))
+    if (isTracked(initialQuery)) {
+      if (dependencyTracking == DependencyTracking.SAMPLED) {
+        sampledQueries.add(subQuery)
+      }
+      val stamp = cancellationLock.tryOptimisticRead()
+      queryDependencyGraph.addDependency(getNodeForQuery(initialQuery), getNodeForQuery(subQuery))
+      if (!cancellationLock.validate(stamp)) {
+        // A cancellation ran while the dependency was added, and may have cancelled `subQuery` without seeing
+        // it. Wait for it to finish: later cancellations see the dependency.
+        cancellationLock.unlockRead(cancellationLock.readLock())
+        if (!solverFor(initialQuery).exists(_.isCancelled) && solverFor(subQuery).exists(_.isCancelled)) {
+          resumeCancelledIn(Set(subQuery))
+        }
+      }
+    }
   }
 
   def errorsImpactingQuery(query: Query): java.util.Map[Query, java.util.Set[Exception]] = {
     queryDependencyGraph.errorsImpactingQuery(getNodeForQuery(query))
   }
 
+  /** A structured view of the progress of the analysis. Cheap enough to be polled while solving. To poll a single
+    * counter, use its accessor below instead.
+    */
+  def statusSnapshot(): StatusSnapshot = new StatusSnapshot(
+    elapsedMillis,
+    forwardSolverCount,
+    backwardSolverCount,
+    scheduler.queuedTaskCount,
+    scheduler.activeThreadCount,
+    queriedCallCount,
+    totalCallNodeCount,
+    queriedPropertyAccessCount,
+    totalPropertyAccessCount,
+    callGraph.size(),
+    queryDependencyCount,
+    Metrics.snapshot()
+  )
+
+  /** Time since `solve` was called, or -1 if it was not. */
+  def elapsedMillis: Long = solveStart.map(start => Duration.between(start, Instant.now()).toMillis).getOrElse(-1L)
+
+  def forwardSolverCount: Int = forwardSolversCreated.get()
+
+  def backwardSolverCount: Int = backwardSolversCreated.get()
+
+  def queryDependencyCount: Long = queryDependencyGraph.dependencyCount()
+
   def printStatus(): Unit = {
-    val runningTime = solveStart match {
-      case Some(startInstant) =>
-        val duration = Duration.between(startInstant, Instant.now())
-        s"[$duration] "
-      case _ => ""
-    }
-    val managerStatus = s"fwd solvers: ${forwardSolverCount.get()}, bwd solvers: ${backwardSolverCount.get()}"
-    val schedulerStatus = scheduler.status()
-    val dependencyStatus = queryDependencyGraph.status()
-    System
-      .err
-      .println(
-        s"$runningTime$managerStatus - $callNodeCoverageStatus - $propertyAccessCoverageStatus - $schedulerStatus - $dependencyStatus - handlerStats: ${HandlerStats.status} - ${callGraph.status()}"
-      )
+    System.err.println(s"fwd solvers: $forwardSolverCount; bwd solvers: $backwardSolverCount; " +
+      s"query dependencies: $queryDependencyCount; queued tasks: ${scheduler.queuedTaskCount}; elapsed ms: $elapsedMillis")
   }
 
   def queriedCallCount: Int = queriedCallNodes.synchronized {
@@ -290,34 +811,13 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
   def queryCount: Int =
     backwardSolvers.synchronized { backwardSolvers.size } + forwardSolvers.synchronized { forwardSolvers.size }
 
-  private var statusThread: Option[Thread] = None
-  def startStatusReporting(intervalMillis: Long): Unit = {
-    if (statusThread.isDefined) {
-      System.err.println(s"Status reporting already enabled")
-    } else {
-      val thread = new Thread(() => {
-        var done = false
-        while (!done) {
-          try {
-            printStatus()
-            Thread.sleep(intervalMillis)
-          } catch {
-            case _: InterruptedException => done = true
-          }
-        }
-      })
-      thread.start()
-      statusThread = Some(thread)
-    }
-  }
-
-  def stopStatusReporting(): Unit = statusThread match {
-    case Some(thread) => thread.interrupt()
-    case None =>
-  }
+  /** The number of states reached by each solver, as a measure of the memory each solver retains. */
+  def solverStateCounts: Seq[Int] = allSolvers.map(_.stateCount())
 
+  /** Cancel all queries by shutting down the scheduler. See `cancelQuery` for cancelling individual queries.
+    * Futures returned by `calleesOf` and `callersOf` that are still pending get cancelled as well.
+    */
   def cancel(): Unit = {
-    stopStatusReporting()
     scheduler.cancel()
   }
 
@@ -328,20 +828,18 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
     var upperBound = 0L
     backwardSolversToLiveSets.synchronized {
       for ((backwardQuery, answer) <- backwardSolversToLiveSets) {
-        queryDependencyGraph.synchronized {
-          val queryNode = getNodeForQuery(new Query(backwardQuery, false))
-          queryDependencyGraph
-            .directDependenciesOf(queryNode)
-            .forEach(dep => {
-              val dependencySolver =
-                if (dep.isForward) forwardSolvers(dep.queryValue) else backwardSolvers(dep.queryValue)
-              val dependencySolverSet = if (!dep.isForward) backwardSolversToLiveSets(dep.queryValue) else null
-              dependencySolverSet match {
-                case ls: LiveSet[Any] if ls != null =>
-                  upperBound += ls.currentSize
-              }
-            })
-        }
+        val queryNode = getNodeForQuery(new Query(backwardQuery, false))
+        queryDependencyGraph
+          .directDependenciesOf(queryNode)
+          .forEach(dep => {
+            val dependencySolver =
+              if (dep.isForward) forwardSolvers(dep.queryValue) else backwardSolvers(dep.queryValue)
+            val dependencySolverSet = if (!dep.isForward) backwardSolversToLiveSets(dep.queryValue) else null
+            dependencySolverSet match {
+              case ls: LiveSet[Any] if ls != null =>
+                upperBound += ls.currentSize
+            }
+          })
       }
     }
     upperBound
@@ -350,11 +848,28 @@ class QueryManager(flowGraph: FlowGraph, val scheduler: Scheduler) {
 
 object QueryManager {
 
+  /** Tag for handlers watching the answers of a query awaited through `resolveCallUntil`. */
+  private final case class AnswerWatcher(id: Long)
+
+  private val answerPollIntervalMillis = 10L
+
+  /** Polls pending answers of all QueryManagers. Polls stop rescheduling themselves once their answer is settled or
+    * their scheduler is cancelled, so the thread holds no QueryManager beyond that.
+    */
+  private lazy val quiescenceMonitor: ScheduledExecutorService =
+    Executors.newSingleThreadScheduledExecutor(runnable => {
+      val thread = new Thread(runnable, "merlin-quiescence-monitor")
+      thread.setDaemon(true)
+      thread
+    })
+
   type BackwardQuery = Node[NodeState, Value]
   type ForwardQuery = Node[NodeState, Value]
 
-  def of(flowGraph: FlowGraph): QueryManager = {
+  def of(flowGraph: FlowGraph): QueryManager = of(flowGraph, DependencyTracking.FULL, 1.0)
+
+  def of(flowGraph: FlowGraph, dependencyTracking: DependencyTracking, dependencySampleRate: Double): QueryManager = {
     FlowgraphUtils.currentFlowGraph = flowGraph
-    new QueryManager(flowGraph, new Scheduler())
+    new QueryManager(flowGraph, new Scheduler(), dependencyTracking, dependencySampleRate)
   }
 }
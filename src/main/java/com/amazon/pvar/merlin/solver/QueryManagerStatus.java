@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes the status of a {@link QueryManager} as an MXBean named
+ * `com.amazon.pvar.merlin:type=QueryManager,name=...`. Each attribute reads only its own counter, except for
+ * `StatusJson`, which takes a full snapshot.
+ */
+public final class QueryManagerStatus implements QueryManagerStatusMXBean, AutoCloseable {
+
+    private final QueryManager queryManager;
+    private final ObjectName objectName;
+
+    private QueryManagerStatus(QueryManager queryManager, ObjectName objectName) {
+        this.queryManager = queryManager;
+        this.objectName = objectName;
+    }
+
+    public static QueryManagerStatus register(QueryManager queryManager, String name) throws JMException {
+        final var objectName = new ObjectName("com.amazon.pvar.merlin:type=QueryManager,name=" + ObjectName.quote(name));
+        final var status = new QueryManagerStatus(queryManager, objectName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(status, objectName);
+        return status;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return queryManager.elapsedMillis();
+    }
+
+    @Override
+    public int getForwardSolvers() {
+        return queryManager.forwardSolverCount();
+    }
+
+    @Override
+    public int getBackwardSolvers() {
+        return queryManager.backwardSolverCount();
+    }
+
+    @Override
+    public long getQueuedTasks() {
+        return queryManager.scheduler().queuedTaskCount();
+    }
+
+    @Override
+    public int getActiveThreads() {
+        return queryManager.scheduler().activeThreadCount();
+    }
+
+    @Override
+    public int getQueriedCallNodes() {
+        return queryManager.queriedCallCount();
+    }
+
+    @Override
+    public long getTotalCallNodes() {
+        return queryManager.totalCallNodeCount();
+    }
+
+    @Override
+    public int getCallGraphEdges() {
+        return queryManager.getCallGraph().size();
+    }
+
+    @Override
+    public long getQueryDependencies() {
+        return queryManager.queryDependencyCount();
+    }
+
+    @Override
+    public String getStatusJson() {
+        return queryManager.statusSnapshot().toJson();
+    }
+
+    @Override
+    public void close() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // already unregistered
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+/**
+ * JMX view of a {@link QueryManager}'s {@link StatusSnapshot}, registered through {@link QueryManagerStatus}.
+ * Attributes are flat so that generic JMX consoles can chart them.
+ */
+public interface QueryManagerStatusMXBean {
+    long getElapsedMillis();
+
+    int getForwardSolvers();
+
+    int getBackwardSolvers();
+
+    long getQueuedTasks();
+
+    int getActiveThreads();
+
+    int getQueriedCallNodes();
+
+    long getTotalCallNodes();
+
+    int getCallGraphEdges();
+
+    long getQueryDependencies();
+
+    /**
+     * @return the full snapshot, including handler metrics, as JSON
+     */
+    String getStatusJson();
+}
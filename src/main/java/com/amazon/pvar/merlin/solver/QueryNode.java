@@ -15,13 +15,13 @@
 
 package com.amazon.pvar.merlin.solver;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** Tracks various metadata about queries, such as whether answering it produced errors. */
 public class QueryNode {
     private final Query query;
-    private final Set<Exception> errors = new HashSet<>();
+    private final Set<Exception> errors = ConcurrentHashMap.newKeySet();
 
     public QueryNode(Query query) {
         this.query = query;
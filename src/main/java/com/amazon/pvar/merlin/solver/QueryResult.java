@@ -0,0 +1,40 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+import java.util.Set;
+
+/**
+ * Answers found for a query, together with the reason the query stopped.
+ * Only answers with status COMPLETE are guaranteed to contain everything the analysis can find.
+ */
+public record QueryResult<A>(Set<A> answers, Status status) {
+
+    public enum Status {
+        /** All solvers contributing to the answer ran to completion */
+        COMPLETE,
+        /** The caller's sufficiency condition was met; remaining solvers were cancelled */
+        SUFFICIENT,
+        /** The query's deadline passed; remaining solvers were cancelled and the answers may be incomplete */
+        TIMED_OUT,
+        /** The query manager was cancelled before the query finished; the answers may be incomplete */
+        CANCELLED
+    }
+
+    public boolean isComplete() {
+        return status == Status.COMPLETE;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.solver;
+
+import com.amazon.pvar.merlin.instrumentation.HandlerCategory;
+import com.amazon.pvar.merlin.instrumentation.Metrics;
+import com.google.gson.Gson;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A point-in-time view of the progress of a {@link QueryManager}, obtained through
+ * {@link QueryManager#statusSnapshot()}. Counters are read without stopping the analysis, so they need not be
+ * mutually consistent.
+ *
+ * @param elapsedMillis time since `solve` was called, or -1 if it was not
+ * @param queuedTasks   an estimate of the scheduler tasks submitted but not started yet
+ * @param handlers      task metrics of the handler categories that had tasks so far
+ */
+public record StatusSnapshot(
+        long elapsedMillis,
+        int forwardSolvers,
+        int backwardSolvers,
+        long queuedTasks,
+        int activeThreads,
+        int queriedCallNodes,
+        long totalCallNodes,
+        int queriedPropertyAccesses,
+        long totalPropertyAccesses,
+        int callGraphEdges,
+        long queryDependencies,
+        Map<HandlerCategory, Metrics.CategorySnapshot> handlers
+) {
+
+    private static final Gson gson = new Gson();
+
+    public String toJson() {
+        return gson.toJson(this);
+    }
+
+    private static String percentage(long current, long total) {
+        final double percentage = 100 * (total == 0 ? 1 : (double) current / total);
+        return String.format("%d / %d (%2.2f%%)", current, total, percentage);
+    }
+
+    @Override
+    public String toString() {
+        final var elapsed = elapsedMillis >= 0 ? "[" + java.time.Duration.ofMillis(elapsedMillis) + "] " : "";
+        return elapsed + "fwd solvers: " + forwardSolvers + ", bwd solvers: " + backwardSolvers +
+                " - call nodes queried: " + percentage(queriedCallNodes, totalCallNodes) +
+                " - property access queried: " + percentage(queriedPropertyAccesses, totalPropertyAccesses) +
+                " - queued tasks: " + queuedTasks + "; active: " + activeThreads +
+                " - query dependencies: " + queryDependencies +
+                " - call graph edges: " + callGraphEdges +
+                " - handlers: " + handlers.entrySet().stream()
+                .map(entry -> entry.getKey() + ": " + entry.getValue().completed() + "/" + entry.getValue().submitted())
+                .collect(Collectors.joining(", "));
+    }
+}
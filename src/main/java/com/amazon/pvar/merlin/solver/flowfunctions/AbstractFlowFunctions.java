@@ -16,6 +16,7 @@
 package com.amazon.pvar.merlin.solver.flowfunctions;
 
 import com.amazon.pvar.merlin.DebugUtils;
+import com.amazon.pvar.merlin.instrumentation.HandlerCategory;
 import com.amazon.pvar.merlin.ir.Allocation;
 import com.amazon.pvar.merlin.ir.FlowgraphUtils;
 import com.amazon.pvar.merlin.ir.FunctionAllocation;
@@ -159,12 +160,14 @@ public abstract class AbstractFlowFunctions implements NodeVisitor {
         transferApplied = true;
         final var node = context.currentPDSNode().stmt().getNode();
         final var val = context.queryValue();
-        final var directionLabel = (this instanceof BackwardFlowFunctions) ? "bwd" : "fwd";
-        final var lineNum = (node.getSourceLocation() != null)
-                ? "L" + node.getSourceLocation().getLineNumber()
-                : "L?";
-        DebugUtils.debug(directionLabel + "+" + val + ": traversing node: " + node + "[" + node.getIndex() +
-                "@" + node.getBlock().getFunction() + "]   " + lineNum);
+        DebugUtils.debug(() -> {
+            final var directionLabel = (this instanceof BackwardFlowFunctions) ? "bwd" : "fwd";
+            final var lineNum = (node.getSourceLocation() != null)
+                    ? "L" + node.getSourceLocation().getLineNumber()
+                    : "L?";
+            return directionLabel + "+" + val + ": traversing node: " + node + "[" + node.getIndex() +
+                    "@" + node.getBlock().getFunction() + "]   " + lineNum;
+        });
         node.visitBy(this);
         return nextStates;
     }
@@ -272,20 +275,49 @@ public abstract class AbstractFlowFunctions implements NodeVisitor {
         return findInvocationsOfFunctionWithQuery(function).getFirst();
     }
 
+    /**
+     * Like the static variant, but registers the query as a dependency of the containing solver's query.
+     */
     public Pair<LiveCollection<CallNode>, Query> findInvocationsOfFunctionWithQuery(Function function) {
+        return findInvocationsOfFunctionWithQuery(function, queryManager, dependentQuery());
+    }
+
+    /**
+     * Find call sites of the provided function, also returning the forward query that discovers them.
+     */
+    public static Pair<LiveCollection<CallNode>, Query> findInvocationsOfFunctionWithQuery(Function function,
+                                                                                          QueryManager queryManager) {
+        return findInvocationsOfFunctionWithQuery(function, queryManager, null);
+    }
+
+    /**
+     * Like `findInvocationsOfFunctionWithQuery(function, queryManager)`, but first registers the forward query as a
+     * dependency of `dependent`, unless `dependent` is null.
+     */
+    public static Pair<LiveCollection<CallNode>, Query> findInvocationsOfFunctionWithQuery(Function function,
+                                                                                          QueryManager queryManager,
+                                                                                          Query dependent) {
         DeclareFunctionNode functionDeclaration = function.getNode();
         FunctionAllocation alloc = new FunctionAllocation(functionDeclaration);
         sync.pds.solver.nodes.Node<NodeState, Value> initialQuery = new sync.pds.solver.nodes.Node<>(
                 new NodeState(functionDeclaration),
                 alloc
         );
-        final var solver = queryManager.getOrStartForwardQuery(initialQuery);
+        final var solver = queryManager.getOrStartForwardQuery(initialQuery, dependent);
         final var query = new Query(initialQuery, true);
 //        var result = solver.getPointsToGraph().getKnownFunctionInvocations(alloc);
         final var result = queryManager.getCallGraph().getInvocationsOf(function);
         return Pair.make(result, query);
     }
 
+    /**
+     * @return the query of the containing solver, which subqueries started by these flow functions are registered as
+     * dependencies of, or null if there is no containing solver
+     */
+    protected final Query dependentQuery() {
+        return containingSolver == null ? null : containingSolver.initialQueryWithDirection();
+    }
+
     /**
      * Find all functions that could be call targets of the provided CallNode
      *
@@ -329,7 +361,17 @@ public abstract class AbstractFlowFunctions implements NodeVisitor {
     }
 
     public static Pair<LiveCollection<Function>, Set<Query>> resolveFunctionCallWithQueries(CallNode n, QueryManager queryManager) {
+        return resolveFunctionCallWithQueries(n, queryManager, null);
+    }
 
+    /**
+     * Like `resolveFunctionCallWithQueries(n, queryManager)`, but first registers each query as a dependency of
+     * `dependent`, unless `dependent` is null. Registering before starting the queries ensures that a query is not
+     * cancelled on behalf of another query just after `dependent` started to rely on it.
+     */
+    public static Pair<LiveCollection<Function>, Set<Query>> resolveFunctionCallWithQueries(CallNode n,
+                                                                                           QueryManager queryManager,
+                                                                                           Query dependent) {
         final var querySet = new HashSet<Query>();
         if (n.getTajsFunctionName() != null) {
             return Pair.make(LiveSet.create(queryManager.scheduler()), querySet); // don't try to resolve TAJS functions
@@ -345,7 +387,8 @@ public abstract class AbstractFlowFunctions implements NodeVisitor {
                 );
                 querySet.add(new Query(initialQuery, false));
                 final var calleeLiveSet = queryManager.getCallGraph().getCalleesOf(n);
-                final var solver = queryManager.getOrStartBackwardQuery(initialQuery, Optional.of(n), calleeLiveSet);
+                final var solver = queryManager.getOrStartBackwardQuery(initialQuery, Optional.of(n), calleeLiveSet,
+                        dependent);
                 return Pair.make(calleeLiveSet, querySet);
             } else {
                 final var calleeLiveSet = queryManager.getCallGraph().getCalleesOf(n);
@@ -354,7 +397,8 @@ public abstract class AbstractFlowFunctions implements NodeVisitor {
                             new NodeState(predecessor),
                             funcReg
                     );
-                    final var solver = queryManager.getOrStartBackwardQuery(initialQuery, Optional.of(n), calleeLiveSet);
+                    final var solver = queryManager.getOrStartBackwardQuery(initialQuery, Optional.of(n), calleeLiveSet,
+                            dependent);
                     querySet.add(new Query(initialQuery, false));
                 }
 
@@ -368,7 +412,7 @@ public abstract class AbstractFlowFunctions implements NodeVisitor {
                     methodCall
             );
             final var calleeLiveSet = queryManager.getCallGraph().getCalleesOf(n);
-            final var solver = queryManager.getOrStartBackwardQuery(query, Optional.of(n), calleeLiveSet);
+            final var solver = queryManager.getOrStartBackwardQuery(query, Optional.of(n), calleeLiveSet, dependent);
             querySet.add(new Query(query, false));
             return Pair.make(calleeLiveSet, querySet);
 //            return Pair.make(LiveSet.create(queryManager.scheduler()), querySet);
@@ -400,14 +444,18 @@ public abstract class AbstractFlowFunctions implements NodeVisitor {
      * <p/>
      * To ensure predictable results, the handler code must not modify the mutable state of the invoking
      * instance.
+     * <p/>
+     * `category` says what the subquery finds (e.g. callees or invocations) and is only used for metrics.
      */
-    public final <A> void continueWithSubqueryResult(LiveCollection<A> subquery, QueryID queryID, Consumer<A> handler) {
-        continueWithSubqueryResult(subquery, queryID, (result, newFlowFunctions) -> handler.accept(result));
+    public final <A> void continueWithSubqueryResult(LiveCollection<A> subquery, QueryID queryID,
+            HandlerCategory category, Consumer<A> handler) {
+        continueWithSubqueryResult(subquery, queryID, category, (result, newFlowFunctions) -> handler.accept(result));
     }
 
-    public final <A> void continueWithSubqueryResult(LiveCollection<A> subquery, QueryID queryID, BiConsumer<A, AbstractFlowFunctions> handler) {
+    public final <A> void continueWithSubqueryResult(LiveCollection<A> subquery, QueryID queryID,
+            HandlerCategory category, BiConsumer<A, AbstractFlowFunctions> handler) {
         if (containingSolver != null) {
-            subquery.onAdd(TaggedHandler.create(queryID, result -> {
+            subquery.onAdd(TaggedHandler.create(queryID, containingSolver.initialQueryWithDirection(), category, result -> {
                 handler.accept(result, this);
             }));
         }
@@ -419,15 +467,15 @@ public abstract class AbstractFlowFunctions implements NodeVisitor {
             queryManager.registerPropertyAccessQuery(location);
             preds.forEach(pred -> {
                     final var findBaseAllocsBackwards = new sync.pds.solver.nodes.Node<>(new NodeState(pred), value);
-                    queryManager.getOrStartBackwardQuery(findBaseAllocsBackwards, Optional.empty());
-                    queryManager.registerQueryDependency(containingSolver.initialQueryWithDirection(),
-                            new Query(findBaseAllocsBackwards, false));
+                    queryManager.getOrStartBackwardQuery(findBaseAllocsBackwards, Optional.empty(), null,
+                            containingSolver.initialQueryWithDirection());
                     final var basePointsToSet = queryManager.getPointsToGraph().getPointsToSet(pred, value);
                     final QueryID bwdsID = new AliasQueryID(
                             new Query(containingSolver.initialQuery, containingSolver instanceof ForwardMerlinSolver),
                             new Query(findBaseAllocsBackwards, false),
                             originatingQueryValue);
-                    basePointsToSet.onAdd(TaggedHandler.create(bwdsID, handler));
+                    basePointsToSet.onAdd(TaggedHandler.create(bwdsID, containingSolver.initialQueryWithDirection(),
+                            HandlerCategory.ALIAS_FOUND, handler));
                 });
         }
     }
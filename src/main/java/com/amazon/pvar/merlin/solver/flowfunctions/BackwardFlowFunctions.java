@@ -16,6 +16,7 @@
 package com.amazon.pvar.merlin.solver.flowfunctions;
 
 import com.amazon.pvar.merlin.DebugUtils;
+import com.amazon.pvar.merlin.instrumentation.HandlerCategory;
 import com.amazon.pvar.merlin.ir.FlowgraphUtils;
 import com.amazon.pvar.merlin.ir.FunctionAllocation;
 import com.amazon.pvar.merlin.ir.MethodCall;
@@ -126,23 +127,18 @@ public class BackwardFlowFunctions extends AbstractFlowFunctions {
         // functions, if necessary
         if (context.queryValue().equals(resultReg) ||
                 context.queryValue() instanceof ObjectAllocation) {
-            final var targetFunctionsAndQueries = resolveFunctionCallWithQueries(n, queryManager);
-            final var targetFunctions = targetFunctionsAndQueries.getFirst();
-            final var targetFunctionQueries = targetFunctionsAndQueries.getSecond();
+            final var targetFunctions = resolveFunctionCallWithQueries(n, queryManager, dependentQuery()).getFirst();
             final var currentSPDSNode = context.currentPDSNode();
             final var queryValue = context.queryValue();
             if (containingSolver != null) {
                 final var queryID = containingSolver.getQueryID(currentSPDSNode, false, false);
-                targetFunctionQueries.forEach(subquery ->
-                        queryManager.registerQueryDependency(containingSolver.initialQueryWithDirection(), subquery)
-                );
-                continueWithSubqueryResult(targetFunctions, queryID, (targetFunction) -> {
-                    DebugUtils.debug("Discovered new callee for " + n + ": " + targetFunction);
+                continueWithSubqueryResult(targetFunctions, queryID, HandlerCategory.CALLEE_FOUND, (targetFunction) -> {
+                    DebugUtils.debug(() -> "Discovered new callee for " + n + ": " + targetFunction);
                     final var returnNode = ((Node) targetFunction.getOrdinaryExit().getLastNode());
                     final var valueToPropagateTo = (queryValue instanceof ObjectAllocation) ? queryValue
                             : new Register(1, targetFunction);
                     final var nextState = callPushState(returnNode, valueToPropagateTo, n);
-                    DebugUtils.debug("Propagating to callee: " + nextState + " for node: " + currentSPDSNode);
+                    DebugUtils.debug(() -> "Propagating to callee: " + nextState + " for node: " + currentSPDSNode);
                     containingSolver.propagate(currentSPDSNode, nextState);
                     DebugUtils.debug("Done propagating to callee");
                 });
@@ -582,7 +578,7 @@ public class BackwardFlowFunctions extends AbstractFlowFunctions {
 
     private void handleflowToFunctionEntry(ConstantNode entryNode, Value queryVal,
             FlowFunctionContext context) {
-        DebugUtils.debug("Handling flow to entry of " + entryNode.getBlock().getFunction() + " looking backwards for "
+        DebugUtils.debug(() -> "Handling flow to entry of " + entryNode.getBlock().getFunction() + " looking backwards for "
                 + queryVal);
         Function containingFunction = entryNode.getBlock().getFunction();
         if (containingFunction.isMain()) {
@@ -618,9 +614,7 @@ public class BackwardFlowFunctions extends AbstractFlowFunctions {
             // Consult ad-hoc call stack abstraction to figure out if we need to actually issue a query to find
             // invocations:
             final var queryID = containingSolver.getQueryID(context.currentPDSNode(), true, false);
-            final var liveInvokesAndQuery = findInvocationsOfFunctionWithQuery(containingFunction);
-            final var liveInvokes = liveInvokesAndQuery.getFirst();
-            final var invokesQuery = liveInvokesAndQuery.getSecond();
+            final var liveInvokes = findInvocationsOfFunction(containingFunction);
             final var currentSPDSNode = context.currentPDSNode();
             if (queryVal instanceof Variable queryVar) {
                 Optional<String> paramName = containingFunction.getParameterNames().stream()
@@ -632,34 +626,29 @@ public class BackwardFlowFunctions extends AbstractFlowFunctions {
                     // continue the backward query from the argument passed to the invocation
                     int paramIndex = containingFunction.getParameterNames().indexOf(paramName.get());
                     // If queryVal is parameter name, go back to invocation site
-                    queryManager.registerQueryDependency(containingSolver.initialQueryWithDirection(), invokesQuery);
-                    continueWithSubqueryResult(liveInvokes, queryID, invoke -> {
+                    continueWithSubqueryResult(liveInvokes, queryID, HandlerCategory.INVOCATION_FOUND, invoke -> {
                         try {
                             Register reg = new Register(invoke.getArgRegister(paramIndex),
                                     invoke.getBlock().getFunction());
                             final var bla = entryNode.getBlock().getFunction();
-                            DebugUtils.debug("handleflowToFunctionEntry[param]: found invocation of " + containingFunction +
+                            DebugUtils.debug(() -> "handleflowToFunctionEntry[param]: found invocation of " + containingFunction +
                                     ": " + invoke + " for query: " + queryVal);
 
                             final var invokePreds = FlowgraphUtils.predecessorsOf(invoke);
                             invokePreds.forEach(invokePred -> {
 //                                final var popState = callPopState(invokePred, reg);
                                  final var popState = makeSPDSNode(invoke, reg);
-                                DebugUtils.debug("Propagating pop state: " + popState + " where initialQuery=" +
+                                DebugUtils.debug(() -> "Propagating pop state: " + popState + " where initialQuery=" +
                                         containingSolver.initialQuery + " and currentSPDSNode: " + context.currentPDSNode());
                                 containingSolver.propagate(context.currentPDSNode(), popState);
-                                DebugUtils.debug("Done propagating: " + popState);
+                                DebugUtils.debug(() -> "Done propagating: " + popState);
                             });
                         } catch (ArrayIndexOutOfBoundsException ignored) {
                         }
                     });
                 } else {
-                    queryManager.registerQueryDependency(
-                            containingSolver.initialQueryWithDirection(),
-                            invokesQuery
-                    );
-                    continueWithSubqueryResult(liveInvokes, queryID, invoke -> {
-                        DebugUtils.debug("handleflowToFunctionEntry[non-param]: found invocation of " +
+                    continueWithSubqueryResult(liveInvokes, queryID, HandlerCategory.INVOCATION_FOUND, invoke -> {
+                        DebugUtils.debug(() -> "handleflowToFunctionEntry[non-param]: found invocation of " +
                                 containingFunction + ": " + invoke + " for query: " + queryVal);
                         Function invokeScope = invoke.getBlock().getFunction();
                         // otherwise, if queryVal is not visible at call site, it must have been
@@ -686,11 +675,7 @@ public class BackwardFlowFunctions extends AbstractFlowFunctions {
                  * capture in the surrounding scope. In this case, we treat both as possible
                  * predecessors.
                  */
-                queryManager.registerQueryDependency(
-                        containingSolver.initialQueryWithDirection(),
-                        invokesQuery
-                );
-                continueWithSubqueryResult(liveInvokes, queryID, invoke -> {
+                continueWithSubqueryResult(liveInvokes, queryID, HandlerCategory.INVOCATION_FOUND, invoke -> {
                     final var nodeAtSurroundingScope = ((Node) containingFunction.getNode().getBlock().getFunction()
                             .getOrdinaryExit().getFirstNode());
                     final var stateAtSurroundingScope = this.makeSPDSNode(nodeAtSurroundingScope, queryVal);
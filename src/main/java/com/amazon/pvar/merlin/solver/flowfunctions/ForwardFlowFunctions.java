@@ -16,6 +16,7 @@
 package com.amazon.pvar.merlin.solver.flowfunctions;
 
 import com.amazon.pvar.merlin.DebugUtils;
+import com.amazon.pvar.merlin.instrumentation.HandlerCategory;
 import com.amazon.pvar.merlin.ir.Allocation;
 import com.amazon.pvar.merlin.ir.FlowgraphUtils;
 import com.amazon.pvar.merlin.ir.FunctionAllocation;
@@ -119,15 +120,8 @@ public class ForwardFlowFunctions extends AbstractFlowFunctions {
 
 
             if (shouldAnalyzeCallee) {
-                final var functionCallTargetsAndQueries = resolveFunctionCallWithQueries(n, queryManager);
-                final var functionCallTargets = functionCallTargetsAndQueries.getFirst();
-                final var functionCallQueries = functionCallTargetsAndQueries.getSecond();
-                functionCallQueries
-                        .forEach(subquery ->
-                                queryManager.registerQueryDependency(
-                                        containingSolver.initialQueryWithDirection(),
-                                        subquery
-                                ));
+                final var functionCallTargets = resolveFunctionCallWithQueries(n, queryManager, dependentQuery())
+                        .getFirst();
                 registerCalleeHandler(n, queryID, sourceState, functionCallTargets);
             }
         }
@@ -136,7 +130,7 @@ public class ForwardFlowFunctions extends AbstractFlowFunctions {
     }
 
     private void registerCalleeHandler(CallNode n, QueryID queryID, sync.pds.solver.nodes.Node<NodeState, Value> sourceState, LiveCollection<Function> functionCallTargets) {
-        continueWithSubqueryResult(functionCallTargets, queryID,
+        continueWithSubqueryResult(functionCallTargets, queryID, HandlerCategory.CALLEE_FOUND,
                 callee -> {
                     if (!(context.queryValue() instanceof Variable var) || var.isVisibleIn(callee)) {
                         this.handleFlowToCallee(n, callee, sourceState, context);
@@ -350,7 +344,7 @@ public class ForwardFlowFunctions extends AbstractFlowFunctions {
             if (queryValue instanceof ObjectAllocation) {
                 withAllocationSitesOf(n, baseReg, alloc -> {
                     assert containingSolver != null;
-                    DebugUtils.debug("fwd found alias for base of property read " + n + ": " +
+                    DebugUtils.debug(() -> "fwd found alias for base of property read " + n + ": " +
                             alloc + "; for query " + queryValue + "; initial query: " + containingSolver.initialQuery);
                     if (alloc.equals(queryValue)) {
                         getSuccessors(n)
@@ -382,7 +376,7 @@ public class ForwardFlowFunctions extends AbstractFlowFunctions {
         assert containingSolver != null;
         final int numArgs = caller.getNumberOfArgs();
         final var queryValue = context.queryValue();
-        DebugUtils.debug(this.containingSolver.getQueryString() + "; New target function: " +
+        DebugUtils.debug(() -> this.containingSolver.getQueryString() + "; New target function: " +
                 callee + " for query " + this.containingSolver.getQueryString() +
                 " and query var " + queryValue + " for call node: " + caller);
         Node entryPoint = ((Node) callee.getEntry().getFirstNode());
@@ -398,7 +392,7 @@ public class ForwardFlowFunctions extends AbstractFlowFunctions {
                     String paramName = callee.getParameterNames().get(i);
                     Variable param = new Variable(paramName, callee);
                     if (queryValue.equals(argRegister)) {
-                        DebugUtils.debug("Propagating actual argument " + argRegister
+                        DebugUtils.debug(() -> "Propagating actual argument " + argRegister
                                 + " to function parameter: " + param);
                         final var nextState = callPushState(entryPoint, param, caller);
                         containingSolver.propagate(context.currentPDSNode(), nextState);
@@ -449,9 +443,9 @@ public class ForwardFlowFunctions extends AbstractFlowFunctions {
             final var currentSPDSNode = context.currentPDSNode();
             final var queryID = containingSolver.getQueryID(currentSPDSNode, true, false);
             final var queryValue = context.queryValue();
-            continueWithSubqueryResult(possibleReturnSites, queryID, returnSite -> {
+            continueWithSubqueryResult(possibleReturnSites, queryID, HandlerCategory.INVOCATION_FOUND, returnSite -> {
                 if (queryValue.equals(result)) {
-                    DebugUtils.debug("Found return site: " + returnSite + " for " +
+                    DebugUtils.debug(() -> "Found return site: " + returnSite + " for " +
                             n.getBlock().getFunction() + "[fwd query: " + containingSolver.initialQuery + "]");
                     Register returnReg = new Register(returnSite.getResultRegister(),
                             returnSite.getBlock().getFunction());
@@ -694,11 +688,7 @@ public class ForwardFlowFunctions extends AbstractFlowFunctions {
             final var callSitesAndQuery = findInvocationsOfFunctionWithQuery(capturingFunction.getFunction());
             final var queryID = new CapturedVariableQuery(new Query(context.currentPDSNode(), true),
                     callSitesAndQuery.getSecond());
-            queryManager.registerQueryDependency(
-                    containingSolver.initialQueryWithDirection(),
-                    callSitesAndQuery.getSecond()
-            );
-            continueWithSubqueryResult(callSitesAndQuery.getFirst(), queryID, callSite -> {
+            continueWithSubqueryResult(callSitesAndQuery.getFirst(), queryID, HandlerCategory.INVOCATION_FOUND, callSite -> {
                 final var callSiteState = makeSPDSNode(callSite, capturedVar);
                 final var initialState = containingSolver.initialQuery;
                 // flow from initial state to call site
@@ -0,0 +1,7 @@
+function apply(f, g) {
+    f();
+    g();
+}
+
+apply(function a() {}, function b() {});
+apply(function c() {}, function d() {});
@@ -0,0 +1,6 @@
+function apply(f, g) {
+    f();
+    g();
+}
+
+apply(function a() {}, function b() {});
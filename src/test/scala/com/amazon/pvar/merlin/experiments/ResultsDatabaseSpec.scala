@@ -0,0 +1,44 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.experiments
+
+import com.amazon.pvar.merlin.experiments.ResultsDatabase.StoredResult
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+
+class ResultsDatabaseSpec extends AnyFlatSpec {
+  private def result(run: String, time: Long, edges: Long) =
+    StoredResult(run, "example.0/q10/0/t4", s"$run-$time.json", time, time, -1, edges)
+
+  "summarize" should "compute the median and variance of measured values" in {
+    val Some(summary) = ResultsDatabase.summarize(Seq(4L, 1L, -1L, 3L, 2L))
+    summary.count should equal (4)
+    summary.median should equal (2.5)
+    summary.variance should equal (5.0 / 3)
+  }
+
+  "compare" should "report slower runs and lost call edges as regressions" in {
+    val results = Seq(100L, 102L, 98L).map(result("base", _, 50)) ++ Seq(150L, 149L, 151L).map(result("new", _, 40))
+    val comparisons = ResultsDatabase.compare(results, "base", "new")
+    comparisons.map(_.metric.name).toSet should equal (Set("runningTimeInMillis", "cpuTimeInMillis", "callEdgesFound"))
+    all(comparisons.map(_.isRegression(0.1))) should be (true)
+  }
+
+  it should "not report changes within the noise of the runs" in {
+    val results = Seq(100L, 60L, 140L).map(result("base", _, 50)) ++ Seq(115L, 70L, 150L).map(result("new", _, 50))
+    ResultsDatabase.compare(results, "base", "new").exists(_.isRegression(0.1)) should be (false)
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.experiments
+
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+
+class SampleStatisticsSpec extends AnyFlatSpec {
+  "confidenceInterval95" should "use Student's t distribution for few samples" in {
+    // mean 10, sample standard deviation 2, so the half width is 4.303 * 2 / sqrt(3)
+    val (low, high) = SampleStatistics.confidenceInterval95(Seq(8.0, 10.0, 12.0))
+    low should equal (10 - 4.303 * 2 / math.sqrt(3) +- 1e-9)
+    high should equal (10 + 4.303 * 2 / math.sqrt(3) +- 1e-9)
+  }
+
+  it should "collapse to the sample for a single sample" in {
+    SampleStatistics.confidenceInterval95(Seq(5.0)) should equal ((5.0, 5.0))
+  }
+
+  "median" should "average the middle samples of an even number of samples" in {
+    SampleStatistics.median(Seq(4.0, 1.0, 3.0, 2.0)) should equal (2.5)
+  }
+
+  "percentile" should "pick the nearest rank" in {
+    val samples = (1 to 100).map(_.toDouble).reverse
+    SampleStatistics.percentile(samples, 50) should equal (50.0)
+    SampleStatistics.percentile(samples, 99) should equal (99.0)
+    SampleStatistics.percentile(samples, 0) should equal (1.0)
+    SampleStatistics.percentile(Seq(7.0), 90) should equal (7.0)
+  }
+}
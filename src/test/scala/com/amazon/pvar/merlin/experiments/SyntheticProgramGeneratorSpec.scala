@@ -0,0 +1,48 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazon.pvar.merlin.experiments
+
+import com.amazon.pvar.merlin.experiments.SyntheticProgramGenerator.{Allocation, Config}
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+
+import java.io.StringWriter
+
+class SyntheticProgramGeneratorSpec extends AnyFlatSpec {
+  private def generate(config: Config): (String, Long) = {
+    val out = new StringWriter()
+    val lines = new SyntheticProgramGenerator(config).write(out)
+    (out.toString, lines)
+  }
+
+  "SyntheticProgramGenerator" should "generate the same program for the same seed" in {
+    val config = Config(functions = 50, allocation = Allocation.Shared)
+    generate(config) should equal (generate(config))
+    generate(config)._1 should not equal generate(config.copy(seed = 7))._1
+  }
+
+  it should "count the lines it writes" in {
+    val (program, lines) = generate(Config(functions = 20, closureDepth = 3, fieldDepth = 4))
+    program.count(_ == '\n') should equal (lines)
+  }
+
+  it should "only call functions it defines" in {
+    val config = Config(functions = 30, fanOut = 5, allocation = Allocation.Constructor)
+    val (program, _) = generate(config)
+    val called = "fun[0-9]+".r.findAllIn(program).toSet
+    called should equal ((0 until config.functions).map(function => s"fun$function").toSet)
+  }
+}
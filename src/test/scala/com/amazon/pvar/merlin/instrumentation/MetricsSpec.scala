@@ -0,0 +1,83 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.instrumentation
+
+import org.scalatest.concurrent.TimeLimitedTests
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+import org.scalatest.time.{Millis, Span}
+
+class MetricsSpec extends AnyFlatSpec with TimeLimitedTests {
+
+  val timeLimit: Span = Span(10000, Millis)
+
+  "A LatencyHistogram" should "report 0 for every percentile while empty" in {
+    val histogram = new LatencyHistogram()
+    histogram.count() should equal(0)
+    histogram.percentileNanos(50) should equal(0)
+    histogram.percentileNanos(100) should equal(0)
+  }
+
+  it should "bound percentiles from above within a factor of two" in {
+    val histogram = new LatencyHistogram()
+    (0 until 99).foreach(_ => histogram.record(1000))
+    histogram.record(1000000)
+    histogram.count() should equal(100)
+    histogram.totalNanos() should equal(99 * 1000 + 1000000)
+    // 1000ns falls into the [512, 1024) bucket, 1ms into [2^19, 2^20)
+    histogram.percentileNanos(50) should equal(1024)
+    histogram.percentileNanos(99) should equal(1024)
+    histogram.percentileNanos(100) should equal(1 << 20)
+  }
+
+  it should "count non-positive durations as 1ns" in {
+    val histogram = new LatencyHistogram()
+    histogram.record(0)
+    histogram.record(-5)
+    histogram.count() should equal(2)
+    histogram.totalNanos() should equal(2)
+    histogram.percentileNanos(100) should equal(2)
+  }
+
+  "Metrics" should "record tasks per category and expose the running category" in {
+    Metrics.reset()
+    var categoryWhileRunning: HandlerCategory = null
+    Metrics.runTask(
+      HandlerCategory.CALLEE_FOUND,
+      Metrics.taskSubmitted(HandlerCategory.CALLEE_FOUND),
+      () => categoryWhileRunning = Metrics.currentCategory()
+    )
+    Metrics.taskRejected(HandlerCategory.CALLEE_FOUND)
+    categoryWhileRunning should equal(HandlerCategory.CALLEE_FOUND)
+    Metrics.currentCategory() should be(null)
+    val snapshot = Metrics.snapshot().get(HandlerCategory.CALLEE_FOUND)
+    snapshot.submitted should equal(1)
+    snapshot.completed should equal(1)
+    snapshot.rejected should equal(1)
+    Metrics.of(HandlerCategory.CALLEE_FOUND).runTime.count() should equal(1)
+    Metrics.snapshot().containsKey(HandlerCategory.ALIAS_FOUND) should be(false)
+  }
+
+  it should "discard everything recorded so far on reset" in {
+    Metrics.runTask(HandlerCategory.OTHER, Metrics.taskSubmitted(HandlerCategory.OTHER), () => ())
+    Metrics.snapshot().isEmpty should be(false)
+    Metrics.reset()
+    Metrics.snapshot().isEmpty should be(true)
+    Metrics.summary() should equal("")
+    Metrics.of(HandlerCategory.OTHER).runTime.percentileNanos(99) should equal(0)
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.instrumentation
+
+import com.google.gson.{JsonObject, JsonParser}
+import org.scalatest.concurrent.TimeLimitedTests
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+import org.scalatest.time.{Millis, Span}
+
+import java.nio.file.Files
+import scala.jdk.CollectionConverters._
+
+class QueryTracerSpec extends AnyFlatSpec with TimeLimitedTests {
+
+  val timeLimit: Span = Span(10000, Millis)
+
+  private def writeTrace(tracer: QueryTracer): JsonObject = {
+    val file = Files.createTempFile("query-trace", ".json")
+    try {
+      tracer.writeChromeTrace(file)
+      JsonParser.parseString(Files.readString(file)).getAsJsonObject
+    } finally {
+      Files.delete(file)
+    }
+  }
+
+  private def traceEvents(trace: JsonObject): Seq[JsonObject] =
+    trace.getAsJsonArray("traceEvents").asScala.map(_.getAsJsonObject).toSeq
+
+  private def trackOf(events: Seq[JsonObject], query: String): Int =
+    events
+      .find(event =>
+        event.get("ph").getAsString == "M" &&
+          event.getAsJsonObject("args").get("name").getAsString == query
+      )
+      .map(_.get("tid").getAsInt)
+      .getOrElse(fail(s"no track for $query"))
+
+  "A QueryTracer" should "write one track per query with subqueries as flow arrows" in {
+    val tracer = new QueryTracer()
+    tracer.solverCreated("root")
+    tracer.subqueryRegistered("root", "sub")
+    tracer.subqueryRegistered("root", "sub")
+    tracer.observe("sub", HandlerCategory.CALLEE_FOUND, () => ())
+    val events = traceEvents(writeTrace(tracer))
+    val rootTrack = trackOf(events, "root")
+    val subTrack = trackOf(events, "sub")
+    rootTrack should not equal subTrack
+
+    val flowStarts = events.filter(_.get("ph").getAsString == "s")
+    val flowEnds = events.filter(_.get("ph").getAsString == "f")
+    flowStarts.map(_.get("tid").getAsInt) should equal(Seq(rootTrack))
+    flowEnds.map(_.get("tid").getAsInt) should equal(Seq(subTrack))
+    flowStarts.head.get("id") should equal(flowEnds.head.get("id"))
+
+    val task = events.find(_.get("cat").getAsString == "callee_found").get
+    task.get("ph").getAsString should equal("X")
+    task.get("tid").getAsInt should equal(subTrack)
+
+    val instants = events.filter(_.get("ph").getAsString == "i")
+    instants.map(event => (event.get("name").getAsString, event.get("tid").getAsInt)) should contain allOf (
+      ("solver created", rootTrack),
+      ("quiescent", subTrack)
+    )
+    val cones = events.filter(_.get("name").getAsString.startsWith("dependency cone"))
+    cones.map(_.get("tid").getAsInt) should equal(Seq(rootTrack))
+    cones.head.get("name").getAsString should equal("dependency cone (2 queries)")
+    cones.head.get("dur").getAsDouble should be >= task.get("ts").getAsDouble - cones.head.get("ts").getAsDouble
+  }
+
+  it should "drop events beyond its cap and report how many were dropped" in {
+    val tracer = new QueryTracer(2)
+    (0 until 5).foreach(_ => tracer.firstStateReached("query"))
+    tracer.droppedEvents() should equal(3)
+    val trace = writeTrace(tracer)
+    trace.getAsJsonObject("otherData").get("droppedEvents").getAsLong should equal(3)
+    traceEvents(trace).count(_.get("ph").getAsString == "i") should equal(2)
+  }
+}
@@ -15,6 +15,7 @@
 
 package com.amazon.pvar.merlin.livecollections
 
+import com.amazon.pvar.merlin.solver.DenseIndex
 import org.scalatest.concurrent.TimeLimitedTests
 import org.scalatest.flatspec.AnyFlatSpec
 import org.scalatest.matchers.should.Matchers._
@@ -142,4 +143,30 @@ class LiveSetSpec extends AnyFlatSpec with TimeLimitedTests {
     assertListenerOnDerivedSetIsRun(underlyingSet2, derivedSet, 1)
   }
 
+  "An IndexedLiveSet" should "behave like a LiveSet" in {
+    val sched = new Scheduler()
+    val index = new DenseIndex[String]()
+    val ls1 = IndexedLiveSet.create(sched, index)
+    val ls2 = IndexedLiveSet.create(sched, index)
+    val counter: AtomicInteger = new AtomicInteger(0)
+    ls1.onAdd(TaggedHandler("count", (_: String) => { counter.addAndGet(1) }))
+    ls1.add("a") should be(true)
+    ls1.add("a") should be(false)
+    ls1.add("b")
+    ls2.add("b")
+    ls2.add("c")
+    ls1.toSet should equal(Set("a", "b"))
+    counter.get() should equal(2)
+    ls2.toSet should equal(Set("b", "c"))
+  }
+
+  it should "not change sets sharing a singleton bitmap when one of them grows" in {
+    val sched = new Scheduler()
+    val factory = IndexedLiveSet.factory(sched, new DenseIndex[String]())
+    val sets = List.fill(3)(factory.create())
+    sets.foreach(_.add("a"))
+    sets.head.add("b")
+    sets(1).add("c")
+    sets.map(_.toSet) should equal(List(Set("a", "b"), Set("a", "c"), Set("a")))
+  }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.livecollections
+
+import org.scalatest.concurrent.TimeLimitedTests
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+import org.scalatest.time.{Millis, Span}
+
+import java.util.concurrent.CountDownLatch
+
+class SchedulerSpec extends AnyFlatSpec with TimeLimitedTests {
+
+  val timeLimit: Span = Span(10000, Millis)
+
+  "A Scheduler" should "only report quiescence for an owner once its handlers have run" in {
+    val sched = new Scheduler()
+    val ls = new LiveSet[Int](sched)
+    val release = new CountDownLatch(1)
+    ls.onAdd(TaggedHandler("blocked", (_: Int) => release.await(), Some("owner")))
+    ls.add(1)
+    sched.isQuiescent(List("owner")) should be(false)
+    sched.isQuiescent(List("other")) should be(true)
+    release.countDown()
+    sched.waitUntilDone()
+    sched.isQuiescent(List("owner")) should be(true)
+  }
+
+  it should "not report owners as quiescent while a task spawns work for another owner" in {
+    val sched = new Scheduler()
+    val release = new CountDownLatch(1)
+    sched.addOwnedThread("parent")(sched.addOwnedThread("child")(release.await()))
+    // until the parent task has spawned the child task, the parent task itself is pending
+    sched.isQuiescent(List("parent", "child")) should be(false)
+    release.countDown()
+    sched.waitUntilDone()
+    sched.isQuiescent(List("parent", "child")) should be(true)
+  }
+
+  it should "forget owners once all their tasks have finished" in {
+    val sched = new Scheduler()
+    val release = new CountDownLatch(1)
+    sched.addOwnedThread("owner")(release.await())
+    (1 to 100).foreach(i => sched.addOwnedThread(s"finished-$i")(()))
+    release.countDown()
+    sched.waitUntilDone()
+    sched.ownerCount should be(0)
+    sched.isQuiescent(List("owner")) should be(true)
+  }
+
+  it should "not count tasks rejected after cancellation as pending" in {
+    val sched = new Scheduler()
+    sched.cancel()
+    sched.addOwnedThread("owner")(())
+    sched.isCancelled should be(true)
+    sched.isQuiescent(List("owner")) should be(true)
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.solver
+
+import com.amazon.pvar.merlin.experiments.Main
+import com.amazon.pvar.merlin.ir.FlowgraphUtils
+import com.amazon.pvar.merlin.livecollections.{Scheduler, TaggedHandler}
+import org.scalatest.concurrent.TimeLimitedTests
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+import org.scalatest.time.{Millis, Span}
+
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch}
+import java.util.concurrent.atomic.AtomicInteger
+import scala.jdk.CollectionConverters._
+import scala.util.Random
+
+class CallGraphSpec extends AnyFlatSpec with TimeLimitedTests {
+
+  val timeLimit: Span = Span(60000, Millis)
+
+  private val program = "src/test/resources/js/callgraph/callgraph-tests/simple-calls.js"
+
+  "A CallGraph" should "deliver every edge added concurrently to a subscriber exactly once" in {
+    val flowGraph = Main.flowgraphWithoutBabel(program, false)
+    FlowgraphUtils.currentFlowGraph = flowGraph
+    val callNodes = FlowgraphUtils.allCallNodes(flowGraph).toList.asScala.toIndexedSeq
+    val functions = flowGraph.getFunctions.asScala.toIndexedSeq
+    val edges = for (callNode <- callNodes; function <- functions) yield new CallGraph.Edge(callNode, function)
+    val scheduler = new Scheduler()
+    val callGraph = new CallGraph(scheduler)
+    val delivered = new ConcurrentLinkedQueue[CallGraph.Edge]()
+    val start = new CountDownLatch(1)
+    // every thread inserts every edge, in its own order
+    val workers = (0 until 8).map(worker =>
+      new Thread(() => {
+        start.await()
+        new Random(worker).shuffle(edges).foreach(callGraph.addEdge)
+      })
+    )
+    workers.foreach(_.start())
+    start.countDown()
+    // subscribe while edges are being added, with a buffer small enough for publishers to block on it
+    val subscription = callGraph.subscribe(
+      (batch: java.util.List[CallGraph.Edge]) => {
+        delivered.addAll(batch)
+        ()
+      },
+      4,
+      2
+    )
+    try {
+      workers.foreach(_.join())
+      while (delivered.size < edges.size) {
+        Thread.sleep(10)
+      }
+      delivered.asScala.toList should contain theSameElementsAs edges
+    } finally {
+      subscription.close()
+      scheduler.cancel()
+    }
+    callGraph.size shouldBe edges.size
+    callNodes.foreach(callNode => callGraph.callees(callNode).asScala shouldBe functions.toSet)
+    functions.foreach(function => callGraph.callers(function).asScala shouldBe callNodes.toSet)
+  }
+
+  it should "back its live sets and callee views by the same rows" in {
+    val flowGraph = Main.flowgraphWithoutBabel(program, false)
+    FlowgraphUtils.currentFlowGraph = flowGraph
+    val callNode = FlowgraphUtils.allCallNodes(flowGraph).toList.asScala.head
+    val List(first, second) = flowGraph.getFunctions.asScala.take(2).toList
+    val scheduler = new Scheduler()
+    val callGraph = new CallGraph(scheduler)
+    val handlerRuns = new AtomicInteger(0)
+    callGraph.getCalleesOf(callNode).onAdd(TaggedHandler("count", (_: dk.brics.tajs.flowgraph.Function) => {
+      handlerRuns.incrementAndGet()
+      ()
+    }))
+    callGraph.addEdge(callNode, first) shouldBe true
+    val callees = callGraph.callees(callNode)
+    callGraph.addEdge(callNode, second) shouldBe true
+    callGraph.addEdge(callNode, first) shouldBe false
+    scheduler.waitUntilDone()
+    // the view keeps the callees known when it was created
+    callees.asScala shouldBe Set(first)
+    callees.contains(second) shouldBe false
+    callGraph.callees(callNode).asScala shouldBe Set(first, second)
+    callGraph.getCalleesOf(callNode).currentElems shouldBe Set(first, second)
+    callGraph.getInvocationsOf(second).currentElems shouldBe Set(callNode)
+    handlerRuns.get shouldBe 2
+    callGraph.size shouldBe 2
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.solver
+
+import org.scalatest.concurrent.TimeLimitedTests
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+import org.scalatest.time.{Millis, Span}
+
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch}
+import scala.jdk.CollectionConverters._
+
+class DenseIndexSpec extends AnyFlatSpec with TimeLimitedTests {
+
+  val timeLimit: Span = Span(10000, Millis)
+
+  "A DenseIndex" should "assign dense ids in order of first appearance" in {
+    val index = new DenseIndex[String]()
+    index.intern("a") should equal(0)
+    index.intern("b") should equal(1)
+    index.intern("a") should equal(0)
+    index.idOf("b") should equal(1)
+    index.idOf("c") should equal(-1)
+    index.get(1) should equal("b")
+    index.size() should equal(2)
+  }
+
+  it should "keep ids stable across chunk boundaries" in {
+    val index = new DenseIndex[Integer]()
+    (0 until 5000).foreach(i => index.intern(i) should equal(i))
+    (0 until 5000).foreach(i => index.get(i) should equal(i))
+  }
+
+  it should "give the same id to an element interned concurrently" in {
+    val index = new DenseIndex[String]()
+    val threads = 8
+    val idsSeen = new ConcurrentHashMap[String, java.util.Set[Integer]]()
+    val start = new CountDownLatch(1)
+    val workers = (0 until threads).map(_ =>
+      new Thread(() => {
+        start.await()
+        (0 until 2000).foreach(i => {
+          val element = s"e$i"
+          idsSeen.computeIfAbsent(element, _ => ConcurrentHashMap.newKeySet()).add(index.intern(element))
+        })
+      })
+    )
+    workers.foreach(_.start())
+    start.countDown()
+    workers.foreach(_.join())
+    index.size() should equal(2000)
+    idsSeen.asScala.foreach { case (element, ids) =>
+      ids should have size 1
+      index.get(ids.iterator().next()) should equal(element)
+    }
+    idsSeen.values().asScala.map(_.iterator().next().intValue()).toSet should equal((0 until 2000).toSet)
+  }
+}
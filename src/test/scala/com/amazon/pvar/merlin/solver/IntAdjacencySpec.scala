@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.solver
+
+import org.scalatest.concurrent.TimeLimitedTests
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+import org.scalatest.time.{Millis, Span}
+
+import java.util.concurrent.CountDownLatch
+import scala.collection.mutable
+
+class IntAdjacencySpec extends AnyFlatSpec with TimeLimitedTests {
+
+  val timeLimit: Span = Span(10000, Millis)
+
+  private def successors(adjacency: IntAdjacency, from: Int): List[Int] = {
+    val result = mutable.ListBuffer.empty[Int]
+    adjacency.forEachSuccessor(from, result += _)
+    result.toList
+  }
+
+  "An IntAdjacency" should "keep successors in insertion order without duplicates" in {
+    val adjacency = new IntAdjacency()
+    adjacency.add(0, 5) should be(true)
+    adjacency.add(0, 3) should be(true)
+    adjacency.add(0, 5) should be(false)
+    adjacency.add(2, 0) should be(true)
+    adjacency.row(0).toList should equal(List(5, 3))
+    successors(adjacency, 0) should equal(List(5, 3))
+    adjacency.row(1) shouldBe empty
+    adjacency.row(-1) shouldBe empty
+    adjacency.contains(0, 3) should be(true)
+    adjacency.contains(0, 0) should be(false)
+    adjacency.contains(2, 0) should be(true)
+    adjacency.contains(-1, 0) should be(false)
+    adjacency.edgeCount() should equal(3)
+  }
+
+  it should "keep views of a row unchanged while the row grows" in {
+    val adjacency = new IntAdjacency()
+    adjacency.add(0, 4)
+    adjacency.add(0, 2)
+    val view = adjacency.successors(0)
+    (0 until 100).foreach(to => adjacency.add(0, to + 10))
+    view.size() should equal(2)
+    view.get(0) should equal(4)
+    view.get(1) should equal(2)
+    an[IndexOutOfBoundsException] should be thrownBy view.get(2)
+    adjacency.successors(0).size() should equal(102)
+    adjacency.successors(1).size() should equal(0)
+    adjacency.positionOf(0, 2) should equal(1)
+    adjacency.positionOf(0, 109) should equal(101)
+    adjacency.positionOf(0, 3) should equal(-1)
+    adjacency.positionOf(0, -1) should equal(-1)
+  }
+
+  it should "detect duplicates in rows that outgrew a linear scan" in {
+    val adjacency = new IntAdjacency()
+    val targets = (0 until 10000).map(_ * 7919 % 10007)
+    targets.foreach(target => adjacency.add(1, target) should be(true))
+    targets.foreach(target => adjacency.add(1, target) should be(false))
+    targets.foreach(target => adjacency.contains(1, target) should be(true))
+    adjacency.contains(1, 10006) should be(false)
+    adjacency.row(1).toList should equal(targets)
+    adjacency.edgeCount() should equal(targets.size)
+  }
+
+  it should "count every edge once when added concurrently" in {
+    val adjacency = new IntAdjacency()
+    val threads = 8
+    val start = new CountDownLatch(1)
+    val workers = (0 until threads).map(worker =>
+      new Thread(() => {
+        start.await()
+        // all threads add the same edges, in different orders, including a row with high fan-in
+        (0 until 2000).map(i => (i * (worker + 1)) % 2000).foreach(to => {
+          adjacency.add(0, to)
+          adjacency.add(to % 16, to)
+        })
+      })
+    )
+    workers.foreach(_.start())
+    start.countDown()
+    workers.foreach(_.join())
+    adjacency.row(0).sorted.toList should equal((0 until 2000).toList)
+    (0 until 16).foreach(from => adjacency.row(from).toSet should equal((0 until 2000).filter(_ % 16 == from).toSet))
+    adjacency.edgeCount() should equal(4000)
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.solver
+
+import com.amazon.pvar.merlin.ir.{NodeState, Property}
+import org.jgrapht.Graph
+import org.jgrapht.graph.{DefaultDirectedGraph, DefaultEdge}
+import org.jgrapht.traverse.BreadthFirstIterator
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+import sync.pds.solver.nodes.Node
+
+import java.util.concurrent.CountDownLatch
+import scala.jdk.CollectionConverters._
+import scala.util.Random
+
+class QueryDependencyGraphSpec extends AnyFlatSpec {
+
+  private def queryNodes(count: Int): IndexedSeq[QueryNode] =
+    (0 until count).map(i => new QueryNode(new Query(new Node(new NodeState(null), new Property(s"q$i")), false)))
+
+  private def edgesOf(graph: Graph[QueryNode, DefaultEdge]): Set[(QueryNode, QueryNode)] =
+    graph.edgeSet().asScala.map(edge => (graph.getEdgeSource(edge), graph.getEdgeTarget(edge))).toSet
+
+  /** The JGraphT-based implementation that `QueryDependencyGraph` replaced. */
+  private final class ReferenceGraph(nodes: Seq[QueryNode]) {
+    val graph = new DefaultDirectedGraph[QueryNode, DefaultEdge](classOf[DefaultEdge])
+    nodes.foreach(graph.addVertex)
+
+    def addDependency(from: QueryNode, to: QueryNode): Unit = graph.addEdge(from, to)
+
+    private def reachableFrom(start: QueryNode): Set[QueryNode] =
+      new BreadthFirstIterator(graph, start).asScala.toSet
+
+    def dependencyConeOf(roots: Set[QueryNode]): Set[Query] =
+      roots.flatMap(reachableFrom).map(_.getQuery)
+
+    def exclusiveDependenciesOf(roots: Set[QueryNode], retained: Set[QueryNode]): Set[Query] = {
+      val cone = roots.flatMap(reachableFrom)
+      val stillNeeded = cone
+        .filter(node =>
+          retained.contains(node) ||
+            graph.incomingEdgesOf(node).asScala.exists(edge => !cone.contains(graph.getEdgeSource(edge)))
+        )
+        .flatMap(reachableFrom)
+      (cone -- stillNeeded).map(_.getQuery)
+    }
+  }
+
+  "A QueryDependencyGraph" should "answer queries like the JGraphT graph it replaced" in {
+    val random = new Random(42)
+    (0 until 50).foreach(_ => {
+      val nodes = queryNodes(30)
+      val graph = new QueryDependencyGraph()
+      val reference = new ReferenceGraph(nodes)
+      nodes.foreach(graph.ensureVertexInGraph)
+      (0 until 45).foreach(_ => {
+        val from = nodes(random.nextInt(nodes.size))
+        val to = nodes(random.nextInt(nodes.size))
+        graph.addDependency(from, to)
+        reference.addDependency(from, to)
+      })
+      val roots = Set.fill(3)(nodes(random.nextInt(nodes.size)))
+      val retained = Set.fill(2)(nodes(random.nextInt(nodes.size)))
+      graph.dependencyConeOf(roots.asJava).asScala shouldBe reference.dependencyConeOf(roots)
+      graph.exclusiveDependenciesOf(roots.asJava, retained.asJava).asScala shouldBe
+        reference.exclusiveDependenciesOf(roots, retained)
+      nodes.foreach(node =>
+        graph.directDependenciesOf(node).asScala shouldBe
+          reference.graph.outgoingEdgesOf(node).asScala.map(reference.graph.getEdgeTarget(_).getQuery)
+      )
+      graph.dependencyCount() shouldBe reference.graph.edgeSet().size()
+      edgesOf(graph.toJGraphT()) shouldBe edgesOf(reference.graph)
+    })
+  }
+
+  it should "record every dependency registered concurrently in both directions" in {
+    val nodes = queryNodes(200)
+    val graph = new QueryDependencyGraph()
+    val start = new CountDownLatch(1)
+    // every thread registers the same dependencies: each node depends on the next one, and all on the last one
+    val workers = (0 until 8).map(worker =>
+      new Thread(() => {
+        start.await()
+        new Random(worker).shuffle(nodes.indices.init).foreach(i => {
+          graph.addDependency(nodes(i), nodes(i + 1))
+          graph.addDependency(nodes(i), nodes.last)
+        })
+      })
+    )
+    workers.foreach(_.start())
+    start.countDown()
+    workers.foreach(_.join())
+    graph.dependencyCount() shouldBe 2 * (nodes.size - 1) - 1
+    graph.dependencyConeOf(Set(nodes.head).asJava).asScala shouldBe nodes.map(_.getQuery).toSet
+    // the last node is needed by all others, so only the first node is exclusive to itself
+    graph.exclusiveDependenciesOf(Set(nodes.head).asJava, Set.empty[QueryNode].asJava).asScala shouldBe
+      nodes.map(_.getQuery).toSet
+    graph.exclusiveDependenciesOf(Set(nodes(1)).asJava, Set.empty[QueryNode].asJava).asScala shouldBe empty
+  }
+}
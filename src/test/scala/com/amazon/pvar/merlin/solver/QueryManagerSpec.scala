@@ -0,0 +1,279 @@
+/*
+ * Copyright 2022-2023 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package com.amazon.pvar.merlin.solver
+
+import com.amazon.pvar.merlin.experiments.Main
+import com.amazon.pvar.merlin.ir.{FlowgraphUtils, NodeState, Register}
+import com.amazon.pvar.merlin.livecollections.Scheduler
+import com.amazon.pvar.merlin.solver.QueryManager.BackwardQuery
+import com.amazon.pvar.merlin.solver.flowfunctions.AbstractFlowFunctions
+import dk.brics.tajs.flowgraph.FlowGraph
+import dk.brics.tajs.flowgraph.jsnodes.{CallNode, WriteVariableNode}
+import org.scalatest.concurrent.TimeLimitedTests
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers._
+import org.scalatest.time.{Millis, Span}
+
+import sync.pds.solver.nodes.Node
+
+import java.time.Duration
+import java.util.concurrent.{CountDownLatch, ForkJoinPool, TimeUnit}
+import scala.jdk.CollectionConverters._
+
+class QueryManagerSpec extends AnyFlatSpec with TimeLimitedTests {
+
+  val timeLimit: Span = Span(60000, Millis)
+
+  // The queries resolving `f()` and `g()` both depend on the forward query finding the invocations of `apply`
+  private val program = "src/test/resources/js/callgraph/query-manager-tests/shared-subquery.js"
+
+  private val batchProgram = "src/test/resources/js/callgraph/query-manager-tests/points-to-batch.js"
+
+  // `f()` calls `a` or `c`, and `g()` calls `b` or `d`. Resolving either depends on the invocations of `apply`
+  private val polymorphicProgram = "src/test/resources/js/callgraph/query-manager-tests/polymorphic-call.js"
+
+  private def callOnLine(flowGraph: FlowGraph, line: Int): CallNode =
+    FlowgraphUtils
+      .allNodes(flowGraph)
+      .iterator()
+      .asScala
+      .collect { case call: CallNode if call.getSourceLocation.getLineNumber == line => call }
+      .toList match {
+      case List(call) => call
+      case calls      => fail(s"Expected one call on line $line, found $calls")
+    }
+
+  private def valueWrittenOnLine(flowGraph: FlowGraph, line: Int): BackwardQuery =
+    FlowgraphUtils
+      .allNodes(flowGraph)
+      .iterator()
+      .asScala
+      .collect { case write: WriteVariableNode if write.getSourceLocation.getLineNumber == line => write }
+      .toList match {
+      case List(write) =>
+        new Node(new NodeState(write), new Register(write.getValueRegister, write.getBlock.getFunction))
+      case writes => fail(s"Expected one variable write on line $line, found $writes")
+    }
+
+  private def startQueryFor(queryManager: QueryManager, call: CallNode): Query =
+    AbstractFlowFunctions.resolveFunctionCallWithQueries(call, queryManager).getSecond.asScala.toList match {
+      case List(query) => query
+      case queries     => fail(s"Expected one query resolving $call, found $queries")
+    }
+
+  private def isCancelled(queryManager: QueryManager, query: Query): Boolean =
+    queryManager.solverFor(query).get.isCancelled
+
+  /** The single query resolving `call`, without starting it. */
+  private def queryFor(call: CallNode): Query =
+    AbstractFlowFunctions.queriesToResolveFunctionCall(call).asScala.toList match {
+      case List(query) => query
+      case queries     => fail(s"Expected one query resolving $call, found $queries")
+    }
+
+  private def calleeNames(result: QueryResult[dk.brics.tajs.flowgraph.Function]): Set[String] =
+    result.answers.asScala.map(_.getName).toSet
+
+  private class SolvedProgram {
+    val flowGraph: FlowGraph = Main.flowgraphWithoutBabel(program, false)
+    val queryManager: QueryManager = QueryManager.of(flowGraph)
+    val callF: CallNode = callOnLine(flowGraph, 2)
+    val queryF: Query = startQueryFor(queryManager, callF)
+    val queryG: Query = startQueryFor(queryManager, callOnLine(flowGraph, 3))
+    queryManager.solve()
+    val shared: Set[Query] =
+      queryManager.directDependenciesOf(queryF).intersect(queryManager.directDependenciesOf(queryG)).filter(_.isForward)
+    shared should not be empty
+  }
+
+  "A QueryManager" should "cancel queries together with the subqueries only they depend on" in {
+    val program = new SolvedProgram
+    import program._
+    queryManager.cancelQueries(Set(queryF, queryG))
+    isCancelled(queryManager, queryF) shouldBe true
+    isCancelled(queryManager, queryG) shouldBe true
+    shared.foreach(isCancelled(queryManager, _) shouldBe true)
+  }
+
+  it should "keep subqueries shared with other queries running" in {
+    val program = new SolvedProgram
+    import program._
+    queryManager.cancelQueries(Set(queryF))
+    isCancelled(queryManager, queryF) shouldBe true
+    isCancelled(queryManager, queryG) shouldBe false
+    shared.foreach(isCancelled(queryManager, _) shouldBe false)
+  }
+
+  it should "resume the cancelled subqueries of a query requested again" in {
+    val program = new SolvedProgram
+    import program._
+    queryManager.cancelQueries(Set(queryF, queryG))
+    startQueryFor(queryManager, callF) shouldBe queryF
+    isCancelled(queryManager, queryF) shouldBe false
+    shared.foreach(isCancelled(queryManager, _) shouldBe false)
+    isCancelled(queryManager, queryG) shouldBe true
+  }
+
+  it should "perform the work parked while a query was cancelled once it is resumed" in {
+    val flowGraph = Main.flowgraphWithoutBabel(program, false)
+    val queryManager = QueryManager.of(flowGraph)
+    val callF = callOnLine(flowGraph, 2)
+    val queryF = startQueryFor(queryManager, callF)
+    queryManager.cancelQueries(Set(queryF))
+    queryManager.scheduler.waitUntilDone()
+    startQueryFor(queryManager, callF)
+    queryManager.solve()
+    queryManager.getCallGraph.getCalleesOf(callF).currentElems.map(_.getName) shouldBe Set("a")
+  }
+
+  it should "record the whole dependency cone of sampled root queries" in {
+    def dependenciesWithSampleRate(rate: Double): Set[Query] = {
+      val flowGraph = Main.flowgraphWithoutBabel(program, false)
+      val queryManager = QueryManager.of(flowGraph, DependencyTracking.SAMPLED, rate)
+      val queryF = startQueryFor(queryManager, callOnLine(flowGraph, 2))
+      queryManager.solve()
+      queryManager.dependencyConeOf(Set(queryF)) - queryF
+    }
+    dependenciesWithSampleRate(1.0).filter(_.isForward) should not be empty
+    dependenciesWithSampleRate(0.0) shouldBe empty
+  }
+
+  it should "report the callees of a call once the queries it depends on are done" in {
+    val flowGraph = Main.flowgraphWithoutBabel(program, false)
+    val queryManager = QueryManager.of(flowGraph)
+    val callees = queryManager.calleesOf(callOnLine(flowGraph, 2)).get(30, TimeUnit.SECONDS)
+    callees.asScala.map(_.getName) shouldBe Set("a")
+  }
+
+  it should "report the callers of a function once the queries it depends on are done" in {
+    val flowGraph = Main.flowgraphWithoutBabel(program, false)
+    val queryManager = QueryManager.of(flowGraph)
+    val apply = flowGraph.getFunctions.asScala.find(_.getName == "apply").get
+    val callers = queryManager.callersOf(apply).get(30, TimeUnit.SECONDS)
+    callers.asScala shouldBe Set(callOnLine(flowGraph, 6))
+  }
+
+  it should "only consider the dependency cone of a query for quiescence" in {
+    val program = new SolvedProgram
+    import program._
+    val unblock = new CountDownLatch(1)
+    queryManager.scheduler.addOwnedThread(shared.head)(unblock.await())
+    try {
+      queryManager.isConeQuiescent(Set(queryF)) shouldBe false
+      queryManager.isConeQuiescent(Set(queryG)) shouldBe false
+      val unrelated = AbstractFlowFunctions.queriesToResolveFunctionCall(callOnLine(flowGraph, 6)).asScala.toSet
+      queryManager.isConeQuiescent(unrelated) shouldBe true
+    } finally {
+      unblock.countDown()
+    }
+    queryManager.scheduler.waitUntilDone()
+    queryManager.isConeQuiescent(Set(queryF, queryG)) shouldBe true
+  }
+
+  it should "stop resolving a call once enough callees are found" in {
+    val flowGraph = Main.flowgraphWithoutBabel(polymorphicProgram, false)
+    val queryManager = QueryManager.of(flowGraph)
+    val callF = callOnLine(flowGraph, 2)
+    val result = queryManager.resolveCallUntil(callF, 1)
+    result.status shouldBe QueryResult.Status.SUFFICIENT
+    calleeNames(result) should not be empty
+    calleeNames(result).subsetOf(Set("a", "c")) shouldBe true
+    val queryF = queryFor(callF)
+    isCancelled(queryManager, queryF) shouldBe true
+    val invocationsOfApply = queryManager.directDependenciesOf(queryF).filter(_.isForward)
+    invocationsOfApply should not be empty
+    invocationsOfApply.foreach(isCancelled(queryManager, _) shouldBe true)
+  }
+
+  it should "keep subqueries shared with another query running when a call is resolved sufficiently" in {
+    val flowGraph = Main.flowgraphWithoutBabel(polymorphicProgram, false)
+    val queryManager = QueryManager.of(flowGraph)
+    val callF = callOnLine(flowGraph, 2)
+    val queryG = startQueryFor(queryManager, callOnLine(flowGraph, 3))
+    queryManager.scheduler.waitUntilDone()
+    val result = queryManager.resolveCallUntil(callF, 1)
+    result.status shouldBe QueryResult.Status.SUFFICIENT
+    val queryF = queryFor(callF)
+    isCancelled(queryManager, queryF) shouldBe true
+    isCancelled(queryManager, queryG) shouldBe false
+    val shared =
+      queryManager.directDependenciesOf(queryF).intersect(queryManager.directDependenciesOf(queryG)).filter(_.isForward)
+    shared should not be empty
+    shared.foreach(isCancelled(queryManager, _) shouldBe false)
+  }
+
+  it should "stop resolving a call once the callees found satisfy a predicate" in {
+    val flowGraph = Main.flowgraphWithoutBabel(polymorphicProgram, false)
+    val queryManager = QueryManager.of(flowGraph)
+    val result = queryManager.resolveCallUntil(
+      callOnLine(flowGraph, 2),
+      (callees: java.util.Set[dk.brics.tajs.flowgraph.Function]) => callees.asScala.exists(_.getName == "c")
+    )
+    result.status shouldBe QueryResult.Status.SUFFICIENT
+    calleeNames(result) should contain("c")
+  }
+
+  it should "resolve a call completely if it finishes within its timeout" in {
+    val flowGraph = Main.flowgraphWithoutBabel(polymorphicProgram, false)
+    val queryManager = QueryManager.of(flowGraph)
+    val callF = callOnLine(flowGraph, 2)
+    val result = queryManager.resolveCallWithin(callF, Duration.ofSeconds(30))
+    result.status shouldBe QueryResult.Status.COMPLETE
+    calleeNames(result) shouldBe Set("a", "c")
+    isCancelled(queryManager, queryFor(callF)) shouldBe false
+  }
+
+  it should "cancel a points-to query that runs past its timeout" in {
+    val flowGraph = Main.flowgraphWithoutBabel(batchProgram, false)
+    FlowgraphUtils.currentFlowGraph = flowGraph
+    val queryManager = new QueryManager(flowGraph, Scheduler.create(new ForkJoinPool(4)))
+    val slow = valueWrittenOnLine(flowGraph, 1)
+    val unblock = new CountDownLatch(1)
+    queryManager.scheduler.addOwnedThread(new Query(slow, false))(unblock.await())
+    try {
+      queryManager.pointsToWithin(slow, Duration.ofMillis(500)).status shouldBe QueryResult.Status.TIMED_OUT
+      isCancelled(queryManager, new Query(slow, false)) shouldBe true
+    } finally {
+      unblock.countDown()
+    }
+    val fast = valueWrittenOnLine(flowGraph, 2)
+    val result = queryManager.pointsToWithin(fast, Duration.ofSeconds(30))
+    result.status shouldBe QueryResult.Status.COMPLETE
+    result.answers should have size 1
+  }
+
+  it should "give each query of a batch its own deadline" in {
+    val flowGraph = Main.flowgraphWithoutBabel(batchProgram, false)
+    FlowgraphUtils.currentFlowGraph = flowGraph
+    // enough workers that the blocked task below does not hold up the other queries
+    val queryManager = new QueryManager(flowGraph, Scheduler.create(new ForkJoinPool(4)))
+    val slow = valueWrittenOnLine(flowGraph, 1)
+    val fast = List(2, 3).map(valueWrittenOnLine(flowGraph, _))
+    val unblock = new CountDownLatch(1)
+    queryManager.scheduler.addOwnedThread(new Query(slow, false))(unblock.await())
+    try {
+      val results = queryManager.solveWithDeadlines(slow :: fast, Duration.ofSeconds(2))
+      results(slow).status shouldBe QueryResult.Status.TIMED_OUT
+      fast.foreach(query => {
+        results(query).status shouldBe QueryResult.Status.COMPLETE
+        results(query).answers should have size 1
+      })
+    } finally {
+      unblock.countDown()
+    }
+  }
+}